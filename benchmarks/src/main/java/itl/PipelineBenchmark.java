@@ -0,0 +1,91 @@
+package itl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Each stage of Main.run on its own, over the programs in resources/corpus
+// Every stage gets its input prepared once, so only that stage is measured
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({ "fib", "loops", "strings", "closures", "scopes" })
+    public String program;
+
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> parsed;
+    private List<Stmt> resolved;
+    private Interpreter interpreter;
+    private ErrorSink errors;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        try(InputStream input = PipelineBenchmark.class.getResourceAsStream("/corpus/" + program + ".tlang")) {
+            if(input == null) throw new IOException("No corpus program " + program);
+            source = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        errors = ErrorSink.to(System.err);
+        tokens = new Scanner(source, errors).scanTokens();
+        parsed = new Parser(tokens).parse();
+
+        // Same steps as Main.compile
+        resolved = Main.compile(new Scanner(source, errors));
+        if(resolved == null) throw new IllegalStateException(program + " doesn't compile");
+
+        // The programs print their result, that isn't what's being measured
+        interpreter = new Interpreter(errors, new PrintWriter(Writer.nullWriter()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if(errors.hadRuntimeError()) throw new IllegalStateException(program + " failed at runtime");
+    }
+
+    @Benchmark
+    public List<Token> scanTokens() {
+        return new Scanner(source).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens).parse();
+    }
+
+    // Resolving only writes slots and depths, so the same tree can be resolved again
+    @Benchmark
+    public List<Stmt> resolve() {
+        new Resolver().resolve(parsed);
+        return parsed;
+    }
+
+    @Benchmark
+    public Interpreter interpret() {
+        interpreter.interpret(resolved);
+        return interpreter;
+    }
+}
@@ -0,0 +1,86 @@
+package itl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+// Resolved and optimized trees saved between runs as ProgramImages, so an unchanged script
+// skips scanning, parsing and resolving
+// Files are named by a hash of the source, a changed script just never finds its old file
+// Anything wrong with a cache file makes it a miss, the script is compiled as usual
+final class AstCache {
+
+    static boolean enabled = !"false".equals(System.getProperty("itl.cache"));
+    static Path directory = Paths.get(System.getProperty("itl.cache.dir",
+            Paths.get(System.getProperty("user.home"), ".cache", "itl").toString()));
+
+    private AstCache() { }
+
+    // Where the compiled form of the source would be kept
+    static Path file(Path source, Charset charset) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        // The same bytes decode differently under another charset
+        digest.update(charset.name().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)ProgramImage.VERSION);
+
+        byte[] buffer = new byte[8192];
+        try(InputStream input = Files.newInputStream(source)) {
+            int read;
+            while((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        StringBuilder name = new StringBuilder();
+        for(byte b : digest.digest()) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return directory.resolve(name.append(".itlc").toString());
+    }
+
+    // null on a miss
+    static List<Stmt> load(Path file) {
+        if(!Files.isRegularFile(file)) return null;
+
+        try {
+            return ProgramImage.read(file);
+        } catch(IOException e) {
+            return null;
+        }
+    }
+
+    // Written next to its final name then moved, so a run starting at the same time never reads half a file
+    static void store(Path file, List<Stmt> statements) {
+        Path temporary = null;
+        try {
+            Files.createDirectories(file.getParent());
+            temporary = Files.createTempFile(file.getParent(), "itl", ".tmp");
+            ProgramImage.write(statements, temporary);
+
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temporary = null;
+        } catch(IOException e) {
+            // Not being able to cache never stops the script from running
+        } finally {
+            if(temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch(IOException e) { }
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package itl;
+
+import static itl.OpCode.*;
+
+import java.util.List;
+
+// Turns the resolved tree into Chunks for the VM
+public class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private Chunk chunk;
+    private int stackDepth = 0;
+    // Last line we saw, for errors raised by statements without tokens
+    private int line = 1;
+    private final ErrorSink errors;
+
+    BytecodeCompiler(ErrorSink errors) {
+        this.errors = errors;
+    }
+
+    Chunk compile(List<Stmt> statements) {
+        chunk = new Chunk("script", 0, 0);
+        for(Stmt statement : statements) {
+            compile(statement);
+        }
+        emit(NIL, 1);
+        emit(RETURN, -1);
+        return chunk.finish();
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private Chunk compileFunction(Stmt.Function function) {
+        Chunk enclosing = chunk;
+        int enclosingDepth = stackDepth;
+
+        chunk = new Chunk(function.name.lexeme, function.params.size(), function.frameSize);
+        chunk.memo = function.memo;
+        chunk.independent = function.independent;
+        stackDepth = 0;
+        for(Stmt statement : function.body) {
+            compile(statement);
+        }
+        emit(NIL, 1);
+        emit(RETURN, -1);
+        Chunk compiled = chunk.finish();
+
+        chunk = enclosing;
+        stackDepth = enclosingDepth;
+        return compiled;
+    }
+
+    // stackEffect keeps track of how deep the value stack can get
+    private void emit(byte op, int stackEffect) {
+        chunk.write(op);
+        track(stackEffect);
+    }
+
+    // Same as above but remembers the token to blame for runtime errors
+    private void emit(byte op, int stackEffect, Token token) {
+        chunk.write(op, token);
+        line = token.line;
+        track(stackEffect);
+    }
+
+    private void track(int stackEffect) {
+        stackDepth += stackEffect;
+        if(stackDepth > chunk.maxStack) chunk.maxStack = stackDepth;
+    }
+
+    private void emitConstant(byte op, int stackEffect, Object value) {
+        emit(op, stackEffect);
+        chunk.writeShort(constant(value));
+    }
+
+    private int constant(Object value) {
+        int index = chunk.addConstant(value);
+        if(index > 0xFFFF) {
+            errors.error(line, "Too many constants in one function.");
+            return 0;
+        }
+        return index;
+    }
+
+    // Returns the offset of the operand to patch later
+    private int emitJump(byte op, int stackEffect) {
+        emit(op, stackEffect);
+        chunk.writeShort(0);
+        return chunk.count - 2;
+    }
+
+    private void patchJump(int operand) {
+        int offset = chunk.count - (operand + 2);
+        if(offset > Short.MAX_VALUE) errors.error(line, "Too much code to jump over.");
+        chunk.patchShort(operand, offset);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(JUMP, 0);
+        int offset = loopStart - (chunk.count + 2);
+        if(offset < Short.MIN_VALUE) errors.error(line, "Loop body too large.");
+        chunk.writeShort(offset);
+    }
+
+    private void define(int slot, Token name) {
+        if(slot == -1) {
+            emitConstant(DEFINE_GLOBAL, -1, name);
+        } else {
+            emit(STORE_LOCAL, -1);
+            chunk.writeShort(slot);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        emit(PUSH_FRAME, 0);
+        chunk.writeShort(stmt.frameSize);
+        for(Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        emit(POP_FRAME, 0);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        emitConstant(CLOSURE, 1, compileFunction(stmt));
+        define(stmt.slot, stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int elseJump = emitJump(POP_JUMP_IF_FALSE, -1);
+        compile(stmt.thenBranch);
+
+        if(stmt.elseBranch == null) {
+            patchJump(elseJump);
+            return null;
+        }
+
+        int endJump = emitJump(JUMP, 0);
+        patchJump(elseJump);
+        compile(stmt.elseBranch);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if(stmt.tailCall) {
+            Expr.Call call = (Expr.Call)stmt.value;
+            compile(call.callee);
+            for(Expr arguement : call.arguements) {
+                compile(arguement);
+            }
+            // Natives leave their result for the RETURN below
+            emit(TAIL_CALL, -call.arguements.size(), call.paren);
+            chunk.write((byte)call.arguements.size());
+        } else if(stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            emit(NIL, 1);
+        }
+        emit(RETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if(stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(NIL, 1);
+        }
+        define(stmt.slot, stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk.count;
+        compile(stmt.condition);
+        int exitJump = emitJump(POP_JUMP_IF_FALSE, -1);
+        compile(stmt.body);
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        if(expr.depth == -1) {
+            emit(SET_GLOBAL, 0, expr.name);
+            chunk.writeShort(constant(expr.name));
+        } else {
+            emit(SET_LOCAL, 0);
+            chunk.writeShort(expr.depth);
+            chunk.writeShort(expr.slot);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        switch(expr.operator.type) {
+            case BANG_EQUAL: emit(NOT_EQUAL, -1); break;
+            case EQUAL_EQUAL: emit(EQUAL, -1); break;
+            case GREATER: emit(GREATER, -1, expr.operator); break;
+            case GREATER_EQUAL: emit(GREATER_EQUAL, -1, expr.operator); break;
+            case LESS: emit(LESS, -1, expr.operator); break;
+            case LESS_EQUAL: emit(LESS_EQUAL, -1, expr.operator); break;
+            case MINUS: emit(SUBTRACT, -1, expr.operator); break;
+            case SLASH: emit(DIVIDE, -1, expr.operator); break;
+            case STAR: emit(MULTIPLY, -1, expr.operator); break;
+            case PLUS: emit(ADD, -1, expr.operator); break;
+            default:
+                errors.error(expr.operator, "Unknown binary operator.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        for(Expr arguement : expr.arguements) {
+            compile(arguement);
+        }
+        emit(CALL, -expr.arguements.size(), expr.paren);
+        chunk.write((byte)expr.arguements.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value == null) {
+            emit(NIL, 1);
+        } else if(expr.value.equals(true)) {
+            emit(TRUE, 1);
+        } else if(expr.value.equals(false)) {
+            emit(FALSE, 1);
+        } else {
+            emitConstant(CONSTANT, 1, expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+
+        // Short circuit: the left value is the result if it decides the outcome
+        int endJump = emitJump(expr.operator.type == TokenType.OR ? JUMP_IF_TRUE : JUMP_IF_FALSE, 0);
+        emit(POP, -1);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        switch(expr.operator.type) {
+            case MINUS: emit(NEGATE, 0, expr.operator); break;
+            case BANG: emit(NOT, 0); break;
+            default:
+                errors.error(expr.operator, "Unknown unary operator.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if(expr.depth == -1) {
+            emit(GET_GLOBAL, 1, expr.name);
+            chunk.writeShort(constant(expr.name));
+        } else {
+            emit(GET_LOCAL, 1);
+            chunk.writeShort(expr.depth);
+            chunk.writeShort(expr.slot);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,58 @@
+package itl;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Bounded queue tasks pass values through, send waits while it's full and receive while it's empty
+// A value sent happens before it's received, so it's safe to hand over anything through one
+final class Channel {
+
+    // Stored in place of nil, the queue can't hold null
+    private static final Object NIL = new Object();
+
+    private final BlockingQueue<Object> values;
+
+    private Channel(int capacity) {
+        this.values = new ArrayBlockingQueue<>(capacity);
+    }
+
+    static Object create(Interpreter interpreter, List<Object> arguements) {
+        Object capacity = arguements.get(0);
+        if(!(capacity instanceof Double) || (double)capacity < 1 || (double)capacity != Math.floor((double)capacity)) {
+            throw new RuntimeError(null, "Channel capacity must be a whole number above 0");
+        }
+        return new Channel((int)Math.min((double)capacity, Integer.MAX_VALUE));
+    }
+
+    static Object send(Interpreter interpreter, List<Object> arguements) {
+        Object value = arguements.get(1);
+        try {
+            channel(arguements.get(0)).values.put(value == null ? NIL : value);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(null, "Interrupted while sending");
+        }
+        return value;
+    }
+
+    static Object receive(Interpreter interpreter, List<Object> arguements) {
+        try {
+            Object value = channel(arguements.get(0)).values.take();
+            return value == NIL ? null : value;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(null, "Interrupted while receiving");
+        }
+    }
+
+    private static Channel channel(Object value) {
+        if(!(value instanceof Channel)) throw new RuntimeError(null, "Can only send and receive on a channel");
+        return (Channel)value;
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
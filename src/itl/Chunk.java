@@ -0,0 +1,80 @@
+package itl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Bytecode for one function (or the top level script) plus its constant pool
+final class Chunk {
+    final String name;
+    final int arity;
+    final int frameSize;
+    // Declared with memo, see VmFunction
+    boolean memo;
+    // Assigns to nothing outside it, see Parallel
+    boolean independent;
+
+    byte[] code = new byte[64];
+    int count = 0;
+    // Token to report runtime errors against, indexed by opcode offset
+    Token[] tokens = new Token[64];
+    Object[] constants;
+    int maxStack = 0;
+
+    private final List<Object> pool = new ArrayList<>();
+    private final Map<Object, Integer> values = new HashMap<>();
+    private final Map<Object, Integer> references = new IdentityHashMap<>();
+
+    Chunk(String name, int arity, int frameSize) {
+        this.name = name;
+        this.arity = arity;
+        this.frameSize = frameSize;
+    }
+
+    void write(byte b) {
+        if(count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            tokens = Arrays.copyOf(tokens, count * 2);
+        }
+        code[count++] = b;
+    }
+
+    void write(byte b, Token token) {
+        write(b);
+        tokens[count - 1] = token;
+    }
+
+    void writeShort(int value) {
+        write((byte)(value >> 8));
+        write((byte)value);
+    }
+
+    void patchShort(int offset, int value) {
+        code[offset] = (byte)(value >> 8);
+        code[offset + 1] = (byte)value;
+    }
+
+    // Numbers and strings are shared by value, tokens and chunks by identity
+    int addConstant(Object value) {
+        Map<Object, Integer> index = (value instanceof Double || value instanceof String) ? values : references;
+        Integer existing = index.get(value);
+        if(existing != null) return existing;
+
+        pool.add(value);
+        index.put(value, pool.size() - 1);
+        return pool.size() - 1;
+    }
+
+    Chunk finish() {
+        constants = pool.toArray();
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "<chunk " + name + ">";
+    }
+}
@@ -0,0 +1,81 @@
+package itl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Takes the same arguements as Main, but hands the script to a running Daemon so it
+// starts on a warm JVM instead of a cold one
+// Only this class is loaded on the client side, with no daemon it falls back to Main
+public final class Client {
+
+    // Frames the daemon sends back: output, then the exit status last
+    static final byte EXIT = 0, STDOUT = 1, STDERR = 2;
+
+    private Client() { }
+
+    // Kept in a directory of the user's own, a name in the shared temp directory could be taken
+    // by anyone before the daemon starts
+    static Path socket() {
+        String socket = System.getProperty("itl.daemon.socket");
+        if(socket != null) return Paths.get(socket);
+
+        String runtime = System.getenv("XDG_RUNTIME_DIR");
+        Path directory = runtime != null && !runtime.isEmpty()
+            ? Paths.get(runtime, "itl")
+            : Paths.get(System.getProperty("user.home"), ".cache", "itl");
+        return directory.resolve("daemon.sock");
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Only scripts are run by the daemon
+        if(args.length > 0 && (args[0].equals("compile") || args[0].equals("daemon"))) {
+            Main.main(args);
+            return;
+        }
+
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket()));
+        } catch(IOException e) {
+            Main.main(args);
+            return;
+        }
+
+        int status;
+        try(channel) {
+            // Relative paths are the client's, not the daemon's
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeUTF(Paths.get("").toAbsolutePath().toString());
+            request.writeInt(args.length);
+            for(String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+
+            DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            for(;;) {
+                byte kind = response.readByte();
+                if(kind == EXIT) {
+                    status = response.readInt();
+                    break;
+                }
+
+                byte[] bytes = response.readNBytes(response.readInt());
+                PrintStream out = kind == STDERR ? System.err : System.out;
+                out.write(bytes);
+                out.flush();
+            }
+        }
+
+        if(status != 0) System.exit(status);
+    }
+}
@@ -0,0 +1,457 @@
+package itl;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+
+// Converts the resolved tree once into pre-bound objects that just run
+// Operators, frame slots, globals and literals are all fixed here, so nothing
+// is looked up or switched on while the program executes
+// Expressions become Nodes (operators specialise as usual), statements become Statements
+public class ClosureCompiler implements Expr.Visitor<Node>, Stmt.Visitor<ClosureCompiler.Statement> {
+
+    Statement[] compile(List<Stmt> statements) {
+        Statement[] compiled = new Statement[statements.size()];
+        for(int i = 0; i < compiled.length; i++) {
+            compiled[i] = statements.get(i).accept(this);
+        }
+        return compiled;
+    }
+
+    private Node compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private Node.Root root(Expr expr) {
+        return new Node.Root(compile(expr));
+    }
+
+    @Override
+    public Statement visitBlockStmt(Stmt.Block stmt) {
+        return new Block(stmt.frameSize, compile(stmt.statements));
+    }
+
+    @Override
+    public Statement visitExpressionStmt(Stmt.Expression stmt) {
+        return new Expression(root(stmt.expression));
+    }
+
+    @Override
+    public Statement visitFunctionStmt(Stmt.Function stmt) {
+        return new Function(stmt);
+    }
+
+    @Override
+    public Statement visitIfStmt(Stmt.If stmt) {
+        Statement elseBranch = stmt.elseBranch == null ? null : stmt.elseBranch.accept(this);
+        return new If(root(stmt.condition), stmt.thenBranch.accept(this), elseBranch);
+    }
+
+    @Override
+    public Statement visitPrintStmt(Stmt.Print stmt) {
+        return new Print(root(stmt.expression));
+    }
+
+    @Override
+    public Statement visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.tailCall) return new TailReturn((Call)compile(stmt.value));
+        Node value = stmt.value == null ? new Node.Constant(null) : compile(stmt.value);
+        return new Return(new Node.Root(value));
+    }
+
+    @Override
+    public Statement visitVarStmt(Stmt.Var stmt) {
+        Node value = stmt.initializer == null ? new Node.Constant(null) : compile(stmt.initializer);
+        if(stmt.slot == -1) return new DefineGlobal(stmt.name, new Node.Root(value));
+        return new DefineLocal(stmt.slot, new Node.Root(value));
+    }
+
+    @Override
+    public Statement visitWhileStmt(Stmt.While stmt) {
+        return new While(root(stmt.condition), stmt.body.accept(this));
+    }
+
+    @Override
+    public Node visitAssignExpr(Expr.Assign expr) {
+        Node value = compile(expr.value);
+        if(expr.depth == -1) return new AssignGlobal(expr.name, value);
+        return new AssignLocal(expr.depth, expr.slot, value);
+    }
+
+    @Override
+    public Node visitBinaryExpr(Expr.Binary expr) {
+        return Node.binary(expr, compile(expr.left), compile(expr.right));
+    }
+
+    @Override
+    public Node visitCallExpr(Expr.Call expr) {
+        Node[] arguements = new Node[expr.arguements.size()];
+        for(int i = 0; i < arguements.length; i++) {
+            arguements[i] = compile(expr.arguements.get(i));
+        }
+        return new Call(compile(expr.callee), arguements, expr.paren, expr.cache);
+    }
+
+    @Override
+    public Node visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Node visitLiteralExpr(Expr.Literal expr) {
+        return Node.literal(expr.value);
+    }
+
+    @Override
+    public Node visitLogicalExpr(Expr.Logical expr) {
+        return Node.logical(expr.operator, compile(expr.left), compile(expr.right));
+    }
+
+    @Override
+    public Node visitUnaryExpr(Expr.Unary expr) {
+        return Node.unary(expr.operator, compile(expr.right));
+    }
+
+    @Override
+    public Node visitVariableExpr(Expr.Variable expr) {
+        if(expr.depth == -1) return new Global(expr.name);
+        if(expr.depth == 0) return new LocalHere(expr.slot);
+        return new Local(expr.depth, expr.slot);
+    }
+
+    // Expressions
+
+    static class Global extends Node {
+        final Token name;
+
+        Global(Token name) {
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return interpreter.globals.get(name);
+        }
+    }
+
+    // Slot in the innermost frame
+    static class LocalHere extends Node {
+        final int slot;
+
+        LocalHere(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return interpreter.frame.slots[slot];
+        }
+    }
+
+    static class Local extends Node {
+        final int depth;
+        final int slot;
+
+        Local(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return interpreter.frame.ancestor(depth).slots[slot];
+        }
+    }
+
+    static class AssignGlobal extends Node {
+        final Token name;
+        Node value;
+
+        AssignGlobal(Token name, Node value) {
+            this.name = name;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object result = value.execute(interpreter);
+            interpreter.globals.assign(name, result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(value == oldChild) value = newChild;
+        }
+    }
+
+    static class AssignLocal extends Node {
+        final int depth;
+        final int slot;
+        Node value;
+
+        AssignLocal(int depth, int slot, Node value) {
+            this.depth = depth;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object result = value.execute(interpreter);
+            interpreter.frame.assignAt(depth, slot, result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(value == oldChild) value = newChild;
+        }
+    }
+
+    static class Call extends Node {
+        final Token paren;
+        final InlineCache cache;
+        Node callee;
+        final Node[] arguements;
+
+        Call(Node callee, Node[] arguements, Token paren, InlineCache cache) {
+            this.callee = adopt(callee);
+            this.arguements = arguements;
+            for(Node arguement : arguements) adopt(arguement);
+            this.paren = paren;
+            this.cache = cache;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object function = callee.execute(interpreter);
+            List<Object> values = arguements(interpreter);
+            try {
+                return cache.lookup(function, paren, values.size()).call(interpreter, values);
+            } catch(RuntimeError error) {
+                throw RuntimeError.at(paren, error);
+            }
+        }
+
+        List<Object> arguements(Interpreter interpreter) {
+            List<Object> values = new ArrayList<>(arguements.length);
+            for(Node arguement : arguements) {
+                values.add(arguement.execute(interpreter));
+            }
+            return values;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(callee == oldChild) callee = newChild;
+            for(int i = 0; i < arguements.length; i++) {
+                if(arguements[i] == oldChild) arguements[i] = newChild;
+            }
+        }
+    }
+
+    // Statements
+
+    abstract static class Statement {
+        abstract void execute(Interpreter interpreter);
+    }
+
+    static void executeAll(Statement[] statements, Interpreter interpreter) {
+        for(Statement statement : statements) {
+            statement.execute(interpreter);
+            if(interpreter.returning) return;
+        }
+    }
+
+    static class Expression extends Statement {
+        final Node.Root expression;
+
+        Expression(Node.Root expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            expression.execute(interpreter);
+        }
+    }
+
+    static class Print extends Statement {
+        final Node.Root expression;
+
+        Print(Node.Root expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.print(expression.execute(interpreter));
+        }
+    }
+
+    static class DefineGlobal extends Statement {
+        final Token name;
+        final Node.Root value;
+
+        DefineGlobal(Token name, Node.Root value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.globals.define(name.symbol, value.execute(interpreter));
+        }
+    }
+
+    static class DefineLocal extends Statement {
+        final int slot;
+        final Node.Root value;
+
+        DefineLocal(int slot, Node.Root value) {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            Object result = value.execute(interpreter);
+            interpreter.frame.slots[slot] = result;
+        }
+    }
+
+    static class Block extends Statement {
+        final int frameSize;
+        final Statement[] statements;
+
+        Block(int frameSize, Statement[] statements) {
+            this.frameSize = frameSize;
+            this.statements = statements;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            Frame previous = interpreter.frame;
+            try {
+                interpreter.frame = new Frame(previous, frameSize);
+                executeAll(statements, interpreter);
+            } finally {
+                interpreter.frame = previous;
+            }
+        }
+    }
+
+    static class If extends Statement {
+        final Node.Root condition;
+        final Statement thenBranch;
+        final Statement elseBranch;
+
+        If(Node.Root condition, Statement thenBranch, Statement elseBranch) {
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            if(interpreter.isTruthy(condition.execute(interpreter))) {
+                thenBranch.execute(interpreter);
+            } else if(elseBranch != null) {
+                elseBranch.execute(interpreter);
+            }
+        }
+    }
+
+    static class While extends Statement {
+        final Node.Root condition;
+        final Statement body;
+
+        While(Node.Root condition, Statement body) {
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            while(interpreter.isTruthy(condition.execute(interpreter))) {
+                body.execute(interpreter);
+                if(interpreter.returning) return;
+            }
+        }
+    }
+
+    static class Return extends Statement {
+        final Node.Root value;
+
+        Return(Node.Root value) {
+            this.value = value;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.returnValue = value.execute(interpreter);
+            interpreter.returning = true;
+        }
+    }
+
+    // Leaves the call to the loop in CompiledFunction
+    static class TailReturn extends Statement {
+        final Call call;
+
+        TailReturn(Call call) {
+            this.call = call;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            Object callee = call.callee.execute(interpreter);
+            List<Object> values = call.arguements(interpreter);
+            ItlCallable function = call.cache.lookup(callee, call.paren, values.size());
+
+            if(function instanceof CompiledFunction) {
+                interpreter.tailCallee = function;
+                interpreter.tailArguements = values;
+                interpreter.returnValue = null;
+            } else {
+                try {
+                    interpreter.returnValue = function.call(interpreter, values);
+                } catch(RuntimeError error) {
+                    throw RuntimeError.at(call.paren, error);
+                }
+            }
+            interpreter.returning = true;
+        }
+    }
+
+    // The body is compiled on the first call, most functions in short scripts never run
+    static class Function extends Statement {
+        final Stmt.Function declaration;
+        private Statement[] body;
+
+        Function(Stmt.Function declaration) {
+            this.declaration = declaration;
+        }
+
+        Statement[] body() {
+            Statement[] compiled = body;
+            if(compiled == null) {
+                compiled = new ClosureCompiler().compile(declaration.body);
+                // Tasks may call it on other threads, they must see the whole body once they see the array
+                VarHandle.storeStoreFence();
+                body = compiled;
+            }
+            return compiled;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            CompiledFunction function = new CompiledFunction(this, interpreter.frame);
+            if(declaration.slot == -1) {
+                interpreter.globals.define(declaration.name.symbol, function);
+            } else {
+                interpreter.frame.slots[declaration.slot] = function;
+            }
+        }
+    }
+}
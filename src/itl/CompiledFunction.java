@@ -0,0 +1,124 @@
+package itl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// Function created by the ClosureCompiler engine
+public class CompiledFunction implements ItlCallable {
+
+    private final ClosureCompiler.Function function;
+    private final Frame closure;
+    private final MemoCache memo;
+
+    CompiledFunction(ClosureCompiler.Function function, Frame closure) {
+        this(function, closure, function.declaration.memo ? new MemoCache(function.declaration.name.lexeme) : null);
+    }
+
+    private CompiledFunction(ClosureCompiler.Function function, Frame closure, MemoCache memo) {
+        this.function = function;
+        this.closure = closure;
+        this.memo = memo;
+    }
+
+    // Same function over copies of its frames, for a Task, see Frame.copy
+    CompiledFunction detach(Map<Object, Object> copies) {
+        if(closure == null) return this;
+        Frame frame = closure.copy(copies);
+        // Copying the frames can come back around to this function
+        CompiledFunction copy = (CompiledFunction)copies.get(this);
+        if(copy == null) {
+            copy = new CompiledFunction(function, frame, memo);
+            copies.put(this, copy);
+        }
+        return copy;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguements) {
+        if(memo != null) {
+            Object cached = memo.get(arguements);
+            if(cached != null) return MemoCache.unwrap(cached);
+        }
+        return invoke(interpreter, arguements);
+    }
+
+    // Runs tail calls in a loop, same as ItlFunction
+    private Object invoke(Interpreter interpreter, List<Object> arguements) {
+        CompiledFunction function = this;
+        Frame frame = null;
+        // Memo calls in the chain, they all get its final result
+        MemoCache.Pending pending = memo == null ? null : new MemoCache.Pending(memo, arguements, null);
+
+        for(;;) {
+            Stmt.Function declaration = function.function.declaration;
+            Object result;
+
+            JitCode jitted = function.jitted();
+            if(jitted != null) {
+                result = jitted.run(interpreter, function.closure, arguements);
+            } else {
+                // Params take the first slots of the frame
+                if(frame == null) {
+                    frame = new Frame(function.closure, declaration.frameSize);
+                } else {
+                    Arrays.fill(frame.slots, null);
+                }
+                for(int i = 0; i < arguements.size(); i++) {
+                    frame.slots[i] = arguements.get(i);
+                }
+
+                Frame previous = interpreter.frame;
+                try {
+                    interpreter.frame = frame;
+                    ClosureCompiler.executeAll(function.function.body(), interpreter);
+                } finally {
+                    interpreter.frame = previous;
+                }
+                result = interpreter.completeCall();
+            }
+
+            ItlCallable next = interpreter.tailCallee;
+            if(next == null) return MemoCache.complete(pending, result);
+            arguements = interpreter.tailArguements;
+            interpreter.tailCallee = null;
+            interpreter.tailArguements = null;
+
+            if(!(next instanceof CompiledFunction)) return MemoCache.complete(pending, next.call(interpreter, arguements));
+
+            MemoCache cache = ((CompiledFunction)next).memo;
+            if(cache != null) {
+                Object cached = cache.get(arguements);
+                if(cached != null) return MemoCache.complete(pending, MemoCache.unwrap(cached));
+                pending = new MemoCache.Pending(cache, arguements, pending);
+            }
+
+            if(next != function || declaration.hasClosures) frame = null;
+            function = (CompiledFunction)next;
+        }
+    }
+
+    // Same tiering as ItlFunction, the Jit only needs the declaration
+    private JitCode jitted() {
+        Stmt.Function declaration = function.declaration;
+        if(declaration.jitted == null && Jit.enabled && declaration.calls < Jit.THRESHOLD && ++declaration.calls == Jit.THRESHOLD) {
+            declaration.jitted = Jit.compile(declaration);
+        }
+        return declaration.jitted;
+    }
+
+    // Safe to run on many threads at once, see Parallel
+    boolean independent() {
+        return function.declaration.independent;
+    }
+
+    @Override
+    public int arity() {
+        return function.declaration.params.size();
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + function.declaration.name.lexeme + ">";
+    }
+}
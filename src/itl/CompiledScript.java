@@ -0,0 +1,52 @@
+package itl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+// A script compiled once, then run any number of times from any number of threads
+// Every run goes through the same tree, so what the nodes learn carries over to the next run:
+// specialised operators, call counts and the bodies the Jit compiled. Runs at once share it
+// the same way tasks do
+// Call sites compare callees by identity and each run makes its own functions, so after a few runs
+// a site stops caching and checks every callee, which still costs far less than decoding again
+public final class CompiledScript {
+
+    private final List<Stmt> statements;
+
+    private CompiledScript(List<Stmt> statements) {
+        this.statements = statements;
+    }
+
+    // null when the source has errors, they're reported to errors
+    public static CompiledScript compile(String source, ErrorSink errors) {
+        return compile(new Scanner(source, errors));
+    }
+
+    public static CompiledScript compile(Reader source, ErrorSink errors) {
+        return compile(new Scanner(source, errors));
+    }
+
+    private static CompiledScript compile(Scanner scanner) {
+        List<Stmt> statements = Main.compile(scanner);
+        if(statements == null) return null;
+        return new CompiledScript(statements);
+    }
+
+    // An image written by itl compile
+    public static CompiledScript load(Path path) throws IOException {
+        byte[] image = Files.readAllBytes(path);
+        try {
+            return new CompiledScript(ProgramImage.decode(ByteBuffer.wrap(image)));
+        } catch(IOException e) {
+            throw new IOException(path + " " + e.getMessage(), e);
+        }
+    }
+
+    List<Stmt> statements() {
+        return statements;
+    }
+}
@@ -0,0 +1,178 @@
+package itl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Keeps one JVM running scripts for Client over a Unix domain socket, so they skip JVM startup
+// and run on code HotSpot has already compiled
+// Each request gets its own virtual thread and its own Interpreter, output is streamed back as it's printed
+final class Daemon {
+
+    private Daemon() { }
+
+    static void serve(Path socket) throws IOException {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket);
+
+        // A socket file nobody answers on was left by a daemon that died
+        if(answers(address)) {
+            System.err.println("A daemon is already listening on " + socket);
+            System.exit(1);
+        }
+        Files.deleteIfExists(socket);
+        createDirectory(socket.toAbsolutePath().getParent());
+
+        try(ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor()) {
+            server.bind(address);
+            // Connecting takes write access, so only the user can hand it scripts
+            ownerOnly(socket);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch(IOException e) { }
+            }));
+            System.err.println("itl daemon listening on " + socket);
+
+            for(;;) {
+                SocketChannel client = server.accept();
+                requests.submit(() -> handle(client));
+            }
+        }
+    }
+
+    private static boolean answers(UnixDomainSocketAddress address) {
+        try {
+            SocketChannel.open(address).close();
+            return true;
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    // Directories made for the socket are the user's alone, ones already there are left as they are
+    private static void createDirectory(Path directory) throws IOException {
+        if(directory == null || Files.isDirectory(directory)) return;
+        try {
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch(UnsupportedOperationException e) {
+            Files.createDirectories(directory);
+        }
+    }
+
+    private static void ownerOnly(Path socket) throws IOException {
+        try {
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+        } catch(UnsupportedOperationException e) {
+            // Not a POSIX file system, the directory it's in is all there is
+        }
+    }
+
+    private static void handle(SocketChannel channel) {
+        try(channel) {
+            DataInputStream request = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            Path directory = Path.of(request.readUTF());
+            String[] args = new String[request.readInt()];
+            for(int i = 0; i < args.length; i++) {
+                args[i] = request.readUTF();
+            }
+
+            Frames frames = new Frames(new DataOutputStream(Channels.newOutputStream(channel)));
+            frames.exit(run(directory, args, frames));
+        } catch(IOException e) {
+            // The client went away, there's nobody left to tell
+        }
+    }
+
+    // Same options and exit statuses as Main
+    private static int run(Path directory, String[] args, Frames frames) {
+        Charset charset = Charset.defaultCharset();
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(frames.stream(Client.STDOUT), charset), true);
+        PrintWriter err = new PrintWriter(new OutputStreamWriter(frames.stream(Client.STDERR), charset), true);
+
+        Main.Engine engine = Main.Engine.TREE;
+        boolean cache = AstCache.enabled;
+        int first = 0;
+        for(; first < args.length && args[first].startsWith("--"); first++) {
+            switch(args[first]) {
+                case "--vm": engine = Main.Engine.VM; break;
+                case "--closure": engine = Main.Engine.CLOSURE; break;
+                case "--no-cache": cache = false; break;
+                case "--no-jit":
+                    err.println("--no-jit applies to the whole daemon, pass it to itl daemon");
+                    return 64;
+                default:
+                    out.println("Usage: itl [--vm | --closure] [--no-cache] [script | image.itlc]");
+                    return 64;
+            }
+        }
+        if(args.length - first > 1) {
+            out.println("Usage: itl [--vm | --closure] [--no-cache] [script | image.itlc]");
+            return 64;
+        }
+
+        Path script = directory.resolve(args.length - first == 1 ? args[first] : "program.tlang");
+        Interpreter interpreter = new Interpreter(ErrorSink.to(err), out);
+        try {
+            return Main.runFile(script, engine, cache, interpreter);
+        } catch(IOException | RuntimeException | StackOverflowError e) {
+            // Would have ended the JVM when run directly, here only the request fails
+            err.println(e);
+            return 1;
+        } finally {
+            out.flush();
+            err.flush();
+        }
+    }
+
+    // Writes each chunk of output as kind, length, bytes
+    private static final class Frames {
+        private final DataOutputStream output;
+
+        Frames(DataOutputStream output) {
+            this.output = output;
+        }
+
+        synchronized void write(byte kind, byte[] bytes, int offset, int length) throws IOException {
+            output.writeByte(kind);
+            output.writeInt(length);
+            output.write(bytes, offset, length);
+            output.flush();
+        }
+
+        synchronized void exit(int status) throws IOException {
+            output.writeByte(Client.EXIT);
+            output.writeInt(status);
+            output.flush();
+        }
+
+        OutputStream stream(byte kind) {
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte)b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    if(length > 0) Frames.this.write(kind, bytes, offset, length);
+                }
+            };
+        }
+    }
+}
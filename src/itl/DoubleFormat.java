@@ -0,0 +1,323 @@
+package itl;
+
+import java.math.BigInteger;
+
+// Turns a number into the text stringify gives for it: Double.toString without a trailing ".0"
+// Whole numbers below 10^7 are written straight from a long. Anything else gets its shortest
+// decimal that reads back as the same double, found with the Ryu algorithm (Ulf Adams, PLDI 2018)
+// in 64 bit arithmetic, and is laid out the way Double.toString does it
+// Subnormals are left to Double.toString, see write
+final class DoubleFormat {
+
+    // The longest there is, -2.2250738585072014E-308
+    static final int MAX_LENGTH = 24;
+
+    private static final int MANTISSA_BITS = 52;
+    private static final int EXPONENT_BIAS = 1023;
+    private static final int POW5_BITCOUNT = 125;
+    private static final int POW5_INV_BITCOUNT = 125;
+
+    private DoubleFormat() { }
+
+    static String toString(double value) {
+        char[] text = new char[MAX_LENGTH];
+        return new String(text, 0, write(value, text, 0));
+    }
+
+    // Writes the text from at, returns where it ends
+    static int write(double value, char[] text, int at) {
+        long bits = Double.doubleToRawLongBits(value);
+
+        if(value > -1e7 && value < 1e7) {
+            long whole = (long)value;
+            if(whole == value) {
+                // -0 keeps its sign, the same as Double.toString
+                if(bits < 0) {
+                    text[at++] = '-';
+                    whole = -whole;
+                }
+                int end = at + decimalLength(whole);
+                writeDigits(whole, text, end);
+                return end;
+            }
+        }
+
+        int exponent = (int)(bits >>> MANTISSA_BITS) & 0x7ff;
+        long mantissa = bits & ((1L << MANTISSA_BITS) - 1);
+        if(exponent == 0x7ff) {
+            return copy(mantissa != 0 ? "NaN" : bits < 0 ? "-Infinity" : "Infinity", text, at);
+        }
+        // Below 2^-1022 there are few enough bits that Double.toString can prefer a two digit
+        // decimal over the shortest one, they're rare enough to hand over
+        if(exponent == 0) return copy(Double.toString(value), text, at);
+
+        if(bits < 0) text[at++] = '-';
+        return shortest(exponent, mantissa, text, at);
+    }
+
+    // The value is m2 * 2^e2, the decimals between the halfway points to its neighbours all read back as it
+    // Works on 4 * m2 so those halfway points are whole numbers too
+    private static int shortest(int exponent, long mantissa, char[] text, int at) {
+        int e2 = exponent - EXPONENT_BIAS - MANTISSA_BITS - 2;
+        long m2 = (1L << MANTISSA_BITS) | mantissa;
+        // Round half even, so the halfway points themselves read back as it when m2 is even
+        boolean acceptBounds = (m2 & 1) == 0;
+        long mv = 4 * m2;
+        // The neighbour below is closer when m2 is the smallest mantissa of its exponent
+        int mmShift = mantissa != 0 || exponent <= 1 ? 1 : 0;
+
+        // The value and its bounds, vr, vp and vm, times 10^-e10
+        long vr, vp, vm;
+        int e10;
+        boolean vmIsTrailingZeros = false;
+        boolean vrIsTrailingZeros = false;
+        if(e2 >= 0) {
+            int q = log10Pow2(e2) - (e2 > 3 ? 1 : 0);
+            e10 = q;
+            int k = POW5_INV_BITCOUNT + pow5bits(q) - 1;
+            int i = -e2 + q + k;
+            long high = Tables.POW5_INV_HIGH[q], low = Tables.POW5_INV_LOW[q];
+            vr = mulShift(mv, high, low, i);
+            vp = mulShift(mv + 2, high, low, i);
+            vm = mulShift(mv - 1 - mmShift, high, low, i);
+            // Only this small can any of them be exact
+            if(q <= 21) {
+                if(mv % 5 == 0) {
+                    vrIsTrailingZeros = multipleOfPowerOf5(mv, q);
+                } else if(acceptBounds) {
+                    vmIsTrailingZeros = multipleOfPowerOf5(mv - 1 - mmShift, q);
+                } else if(multipleOfPowerOf5(mv + 2, q)) {
+                    vp--;
+                }
+            }
+        } else {
+            int q = log10Pow5(-e2) - (-e2 > 1 ? 1 : 0);
+            e10 = q + e2;
+            int i = -e2 - q;
+            int k = pow5bits(i) - POW5_BITCOUNT;
+            int j = q - k;
+            long high = Tables.POW5_HIGH[i], low = Tables.POW5_LOW[i];
+            vr = mulShift(mv, high, low, j);
+            vp = mulShift(mv + 2, high, low, j);
+            vm = mulShift(mv - 1 - mmShift, high, low, j);
+            if(q <= 1) {
+                vrIsTrailingZeros = true;
+                if(acceptBounds) {
+                    vmIsTrailingZeros = mmShift == 1;
+                } else {
+                    vp--;
+                }
+            } else if(q < 63) {
+                vrIsTrailingZeros = multipleOfPowerOf2(mv, q);
+            }
+        }
+
+        // Drop digits while the bounds still have a decimal of that length between them
+        int removed = 0;
+        long output;
+        if(vmIsTrailingZeros || vrIsTrailingZeros) {
+            // Exact values need the digits dropped kept track of, for ties and for the lower bound itself
+            int lastRemovedDigit = 0;
+            while(vp / 10 > vm / 10) {
+                vmIsTrailingZeros &= vm % 10 == 0;
+                vrIsTrailingZeros &= lastRemovedDigit == 0;
+                lastRemovedDigit = (int)(vr % 10);
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            if(vmIsTrailingZeros) {
+                while(vm % 10 == 0) {
+                    vrIsTrailingZeros &= lastRemovedDigit == 0;
+                    lastRemovedDigit = (int)(vr % 10);
+                    vr /= 10;
+                    vp /= 10;
+                    vm /= 10;
+                    removed++;
+                }
+            }
+            // Exactly halfway rounds to even
+            if(vrIsTrailingZeros && lastRemovedDigit == 5 && vr % 2 == 0) lastRemovedDigit = 4;
+            output = vr + ((vr == vm && (!acceptBounds || !vmIsTrailingZeros)) || lastRemovedDigit >= 5 ? 1 : 0);
+        } else {
+            // No ties here, so only the last digit dropped decides the rounding
+            // Dropping 8, then 4, 2 and 1 at a time takes a few divisions instead of one round per digit
+            boolean roundUp = false;
+            while(vp / 100_000_000 > vm / 100_000_000) {
+                roundUp = vr % 100_000_000 >= 50_000_000;
+                vr /= 100_000_000;
+                vp /= 100_000_000;
+                vm /= 100_000_000;
+                removed += 8;
+            }
+            if(vp / 10_000 > vm / 10_000) {
+                roundUp = vr % 10_000 >= 5_000;
+                vr /= 10_000;
+                vp /= 10_000;
+                vm /= 10_000;
+                removed += 4;
+            }
+            if(vp / 100 > vm / 100) {
+                roundUp = vr % 100 >= 50;
+                vr /= 100;
+                vp /= 100;
+                vm /= 100;
+                removed += 2;
+            }
+            if(vp / 10 > vm / 10) {
+                roundUp = vr % 10 >= 5;
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            output = vr + (vr == vm || roundUp ? 1 : 0);
+        }
+
+        return layout(output, e10 + removed, text, at);
+    }
+
+    // output * 10^exponent, plain from 10^-3 up to 10^7 and in scientific notation outside that
+    private static int layout(long output, int exponent, char[] text, int at) {
+        int length = decimalLength(output);
+        int scientific = exponent + length - 1;
+
+        if(scientific >= 0 && scientific < 7) {
+            int whole = scientific + 1;
+            if(length <= whole) {
+                writeDigits(output, text, at + length);
+                for(int i = length; i < whole; i++) {
+                    text[at + i] = '0';
+                }
+                return at + whole;
+            }
+            // Digits go in one place to the right, then the whole part moves back over the point
+            writeDigits(output, text, at + 1 + length);
+            System.arraycopy(text, at + 1, text, at, whole);
+            text[at + whole] = '.';
+            return at + 1 + length;
+        }
+
+        if(scientific < 0 && scientific >= -3) {
+            text[at++] = '0';
+            text[at++] = '.';
+            for(int i = -1; i > scientific; i--) {
+                text[at++] = '0';
+            }
+            int end = at + length;
+            writeDigits(output, text, end);
+            return end;
+        }
+
+        int end;
+        if(length == 1) {
+            text[at] = (char)('0' + output);
+            text[at + 1] = '.';
+            text[at + 2] = '0';
+            end = at + 3;
+        } else {
+            writeDigits(output, text, at + 1 + length);
+            text[at] = text[at + 1];
+            text[at + 1] = '.';
+            end = at + 1 + length;
+        }
+
+        text[end++] = 'E';
+        if(scientific < 0) {
+            text[end++] = '-';
+            scientific = -scientific;
+        }
+        int exponentEnd = end + decimalLength(scientific);
+        writeDigits(scientific, text, exponentEnd);
+        return exponentEnd;
+    }
+
+    // Writes value's digits so the last one is just before end
+    private static void writeDigits(long value, char[] text, int end) {
+        do {
+            text[--end] = (char)('0' + value % 10);
+            value /= 10;
+        } while(value != 0);
+    }
+
+    private static int decimalLength(long value) {
+        int length = 1;
+        for(long bound = 10; length < 19 && value >= bound; bound *= 10) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int copy(String string, char[] text, int at) {
+        string.getChars(0, string.length(), text, at);
+        return at + string.length();
+    }
+
+    // (m * (high * 2^64 + low)) >> shift, m is at most 55 bits and shift at least 64
+    private static long mulShift(long m, long high, long low, int shift) {
+        long lowHigh = Math.unsignedMultiplyHigh(m, low);
+        long highLow = m * high;
+        long highHigh = Math.unsignedMultiplyHigh(m, high);
+        long middle = lowHigh + highLow;
+        if(Long.compareUnsigned(middle, lowHigh) < 0) highHigh++;
+
+        int distance = shift - 64;
+        if(distance == 0) return middle;
+        return (highHigh << (64 - distance)) | (middle >>> distance);
+    }
+
+    // Number of bits in 5^e
+    private static int pow5bits(int e) {
+        return (int)(((e * 1217359L) >>> 19) + 1);
+    }
+
+    // floor(log10(2^e))
+    private static int log10Pow2(int e) {
+        return (int)((e * 78913L) >>> 18);
+    }
+
+    // floor(log10(5^e))
+    private static int log10Pow5(int e) {
+        return (int)((e * 732923L) >>> 20);
+    }
+
+    private static boolean multipleOfPowerOf5(long value, int p) {
+        int count = 0;
+        while(value % 5 == 0) {
+            value /= 5;
+            count++;
+        }
+        return count >= p;
+    }
+
+    private static boolean multipleOfPowerOf2(long value, int p) {
+        return (value & ((1L << p) - 1)) == 0;
+    }
+
+    // 5^i and 2^k / 5^i to 125 bits, split into two longs
+    // Built the first time a number needs them, programs printing whole numbers never do
+    private static final class Tables {
+        static final long[] POW5_HIGH = new long[326];
+        static final long[] POW5_LOW = new long[326];
+        static final long[] POW5_INV_HIGH = new long[342];
+        static final long[] POW5_INV_LOW = new long[342];
+
+        static {
+            for(int i = 0; i < POW5_HIGH.length; i++) {
+                BigInteger pow = BigInteger.valueOf(5).pow(i);
+                int shift = pow.bitLength() - POW5_BITCOUNT;
+                BigInteger split = shift >= 0 ? pow.shiftRight(shift) : pow.shiftLeft(-shift);
+                POW5_HIGH[i] = split.shiftRight(64).longValue();
+                POW5_LOW[i] = split.longValue();
+            }
+            for(int i = 0; i < POW5_INV_HIGH.length; i++) {
+                BigInteger pow = BigInteger.valueOf(5).pow(i);
+                int shift = pow.bitLength() - 1 + POW5_INV_BITCOUNT;
+                BigInteger inverse = BigInteger.ONE.shiftLeft(shift).divide(pow).add(BigInteger.ONE);
+                POW5_INV_HIGH[i] = inverse.shiftRight(64).longValue();
+                POW5_INV_LOW[i] = inverse.longValue();
+            }
+        }
+    }
+}
@@ -1,11 +1,23 @@
 package itl;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+// Globals, indexed by the symbol id of their name
+// Held in pages of PAGE symbols, a page is only made once a global in it is defined, so the ids
+// other programs took up along the way cost nothing
+// Tasks share them, get and assign are left unsynchronized. Defining only ever adds pages and
+// replaces the array holding them, a page never moves, so a task still reading the old array
+// gets and assigns the same slots
 public class Environment {
     final Environment enclosing;
-    public final Map<String, Object> values = new HashMap<>();
+
+    // Marks a slot no global has been defined in, nil is a value like any other
+    private static final Object UNDEFINED = new Object();
+
+    private static final int PAGE_BITS = 6;
+    private static final int PAGE = 1 << PAGE_BITS;
+
+    private Object[][] pages = new Object[4][];
 
     Environment() {
         enclosing = null;
@@ -16,9 +28,8 @@ public class Environment {
     }
 
     Object get(Token name) {
-        if(values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
+        Object value = slot(name.symbol);
+        if(value != UNDEFINED) return value;
 
         if(enclosing != null) return enclosing.get(name);
 
@@ -26,8 +37,10 @@ public class Environment {
     }
 
     void assign(Token name, Object value) {
-        if(values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+        int symbol = name.symbol;
+        Object[] page = page(symbol);
+        if(page != null && page[symbol & (PAGE - 1)] != UNDEFINED) {
+            page[symbol & (PAGE - 1)] = value;
             return;
         }
 
@@ -39,23 +52,49 @@ public class Environment {
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
+    boolean isDefined(int symbol) {
+        return slot(symbol) != UNDEFINED;
+    }
+
+    // null when undefined, for callers that have no Token to report an error at
+    Object get(int symbol) {
+        Object value = slot(symbol);
+        return value == UNDEFINED ? null : value;
     }
 
-    Environment ancestor(int distance) {
-        Environment environment = this;
-        for(int i = 0; i < distance; i++) {
-            environment = environment.enclosing;
+    // Every symbol id below this might be defined
+    int capacity() {
+        return pages().length * PAGE;
+    }
+
+    synchronized void define(int symbol, Object value) {
+        int index = symbol >>> PAGE_BITS;
+        if(index >= pages.length) pages = Arrays.copyOf(pages, Math.max(pages.length * 2, index + 1));
+        if(pages[index] == null) {
+            Object[] page = new Object[PAGE];
+            Arrays.fill(page, UNDEFINED);
+            pages[index] = page;
         }
-        return environment;
+        pages[index][symbol & (PAGE - 1)] = value;
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    private Object slot(int symbol) {
+        Object[] page = page(symbol);
+        return page == null ? UNDEFINED : page[symbol & (PAGE - 1)];
+    }
+
+    // null when nothing in the page is defined
+    // Another thread may have added it since this one last looked, so a miss looks again under the lock
+    private Object[] page(int symbol) {
+        int index = symbol >>> PAGE_BITS;
+        Object[][] pages = this.pages;
+        if(index < pages.length && pages[index] != null) return pages[index];
+
+        pages = pages();
+        return index < pages.length ? pages[index] : null;
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    private synchronized Object[][] pages() {
+        return pages;
     }
 }
@@ -0,0 +1,64 @@
+package itl;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+// Where the compile and runtime errors of a script go
+// Each compile or run reports into its own sink, so scripts running side by side don't see each other's errors
+public abstract class ErrorSink {
+
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+
+    // Gets each error formatted the way the command line prints it
+    protected abstract void report(String message);
+
+    public boolean hadError() {
+        return hadError;
+    }
+
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    public static ErrorSink to(PrintStream out) {
+        return new ErrorSink() {
+            @Override
+            protected void report(String message) {
+                out.println(message);
+            }
+        };
+    }
+
+    public static ErrorSink to(PrintWriter out) {
+        return new ErrorSink() {
+            @Override
+            protected void report(String message) {
+                out.println(message);
+                out.flush();
+            }
+        };
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void report(int line, String where, String message) {
+        report("[line " + line + "] Error" + where + ": " + message);
+        hadError = true;
+    }
+
+    void error(Token token, String message) {
+        if(token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    void runtimeError(RuntimeError error) {
+        report(error.getMessage() + "\n[line" + error.token.line + "]");
+        hadRuntimeError = true;
+    }
+}
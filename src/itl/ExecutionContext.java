@@ -0,0 +1,52 @@
+package itl;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// What one run of a script sees: its own globals, its own output and its own errors
+// Contexts share nothing, so each thread can run scripts in its own
+// A context itself is used by one thread at a time, running scripts one after another keeps their globals
+public final class ExecutionContext {
+
+    private final Interpreter interpreter;
+
+    public ExecutionContext() {
+        this(new PrintWriter(System.out, true), ErrorSink.to(System.err));
+    }
+
+    public ExecutionContext(PrintWriter out, ErrorSink errors) {
+        this.interpreter = new Interpreter(errors, out);
+    }
+
+    // false when the script stopped on a runtime error, it's been reported to the ErrorSink
+    public boolean run(CompiledScript script) {
+        boolean completed = interpreter.interpret(script.statements());
+        interpreter.out.flush();
+        return completed;
+    }
+
+    // Numbers become doubles, the only number scripts have
+    public void define(String name, Object value) {
+        if(value instanceof Number && !(value instanceof Double)) value = ((Number)value).doubleValue();
+        interpreter.globals.define(Symbols.GLOBAL.intern(name), value);
+    }
+
+    // null when undefined
+    public Object get(String name) {
+        return interpreter.globals.get(Symbols.GLOBAL.intern(name));
+    }
+
+    // Every global the scripts defined, natives left out
+    public Map<String, Object> globals() {
+        Map<String, Object> globals = new LinkedHashMap<>();
+        Environment environment = interpreter.globals;
+        for(int symbol = 0; symbol < environment.capacity(); symbol++) {
+            if(!environment.isDefined(symbol)) continue;
+            Object value = environment.get(symbol);
+            if(value instanceof Native) continue;
+            globals.put(Symbols.GLOBAL.name(symbol), value);
+        }
+        return globals;
+    }
+}
@@ -26,6 +26,9 @@ abstract class Expr{
 
     final Token name;
     final Expr value;
+    // Filled in by the Resolver, depth -1 means global
+    int depth = -1;
+    int slot = -1;
    }
  static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -42,6 +45,10 @@ abstract class Expr{
     final Expr left;
     final Token operator;
     final Expr right;
+    // Set by the Resolver when the result is always a number
+    boolean numeric;
+    // Specialising node tree, built on first evaluation
+    Node.Root node;
    }
  static class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguements) {
@@ -58,6 +65,8 @@ abstract class Expr{
     final Expr callee;
     final Token paren;
     final List<Expr> arguements;
+    // Callees already checked at this site
+    final InlineCache cache = new InlineCache();
    }
  static class Grouping extends Expr {
     Grouping(Expr expression) {
@@ -98,6 +107,8 @@ abstract class Expr{
     final Expr left;
     final Token operator;
     final Expr right;
+    // Specialising node tree, built on first evaluation
+    Node.Root node;
    }
  static class Unary extends Expr {
     Unary(Token operator, Expr right) {
@@ -112,6 +123,8 @@ abstract class Expr{
 
     final Token operator;
     final Expr right;
+    // Specialising node tree, built on first evaluation
+    Node.Root node;
    }
  static class Variable extends Expr {
     Variable(Token name) {
@@ -124,6 +137,9 @@ abstract class Expr{
     }
 
     final Token name;
+    // Filled in by the Resolver, depth -1 means global
+    int depth = -1;
+    int slot = -1;
    }
 
   abstract <R> R accept(Visitor<R> visitor);
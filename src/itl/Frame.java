@@ -0,0 +1,50 @@
+package itl;
+
+import java.util.Map;
+
+// Local variables of one scope, indexed by the slots the Resolver hands out
+public class Frame {
+    final Frame enclosing;
+    final Object[] slots;
+
+    Frame(Frame enclosing, int size) {
+        this.enclosing = enclosing;
+        this.slots = new Object[size];
+    }
+
+    // Copies this frame and every one it's nested in, along with the functions in their slots,
+    // so the copied functions only close over copied frames
+    // copies maps what's been copied so far to its copy, a frame or function reached twice is copied once
+    Frame copy(Map<Object, Object> copies) {
+        Frame copy = (Frame)copies.get(this);
+        if(copy != null) return copy;
+
+        copy = new Frame(enclosing == null ? null : enclosing.copy(copies), slots.length);
+        copies.put(this, copy);
+        for(int i = 0; i < slots.length; i++) {
+            copy.slots[i] = Task.detach(slots[i], copies);
+        }
+        return copy;
+    }
+
+    Frame ancestor(int distance) {
+        Frame frame = this;
+        for(int i = 0; i < distance; i++) {
+            frame = frame.enclosing;
+        }
+        return frame;
+    }
+
+    Object getAt(int distance, int slot) {
+        if(distance == 0) return slots[slot];
+        return ancestor(distance).slots[slot];
+    }
+
+    void assignAt(int distance, int slot, Object value) {
+        if(distance == 0) {
+            slots[slot] = value;
+            return;
+        }
+        ancestor(distance).slots[slot] = value;
+    }
+}
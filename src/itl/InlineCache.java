@@ -0,0 +1,66 @@
+package itl;
+
+// Remembers the callees a call site has already checked
+// A callee seen before is compared by identity and called straight away
+// The first one is kept on its own, then up to POLYMORPHIC_LIMIT in a list,
+// after that the site is megamorphic and every call gets checked again
+// Tasks share call sites, a lookup racing with remember at worst misses and checks the callee again
+final class InlineCache {
+
+    static final int POLYMORPHIC_LIMIT = 4;
+
+    private ItlCallable monomorphic;
+    private ItlCallable[] polymorphic;
+    private int count;
+    private boolean megamorphic;
+
+    // Returns the callee once it is known to be callable with argCount arguements
+    ItlCallable lookup(Object callee, Token paren, int argCount) {
+        if(callee == monomorphic && callee != null) return monomorphic;
+
+        ItlCallable[] targets = polymorphic;
+        if(targets != null && callee != null) {
+            for(int i = 0; i < count; i++) {
+                if(targets[i] == callee) return targets[i];
+            }
+        }
+
+        ItlCallable function = check(callee, paren, argCount);
+        if(!megamorphic) remember(function);
+        return function;
+    }
+
+    static ItlCallable check(Object callee, Token paren, int argCount) {
+        if(!(callee instanceof ItlCallable)) {
+            throw new RuntimeError(paren, "You can only call functions and classes");
+        }
+
+        ItlCallable function = (ItlCallable)callee;
+
+        // arity -> num arguements
+        if(argCount != function.arity()) {
+            throw new RuntimeError(paren, "Expected " + function.arity() + " number of arguments, but instead got: " + argCount);
+        }
+        return function;
+    }
+
+    private synchronized void remember(ItlCallable function) {
+        if(megamorphic) return;
+        if(monomorphic == null) {
+            monomorphic = function;
+            return;
+        }
+
+        if(polymorphic == null) polymorphic = new ItlCallable[POLYMORPHIC_LIMIT];
+        if(count < POLYMORPHIC_LIMIT) {
+            polymorphic[count++] = function;
+            return;
+        }
+
+        // Too many callees, drop them so closures aren't kept alive
+        megamorphic = true;
+        monomorphic = null;
+        polymorphic = null;
+        count = 0;
+    }
+}
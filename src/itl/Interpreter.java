@@ -4,70 +4,119 @@ import java.util.List;
 import java.io.*;
 import itl.Stmt.*;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     // This holds a fixed ref to outermost env
-    final Environment globals = new Environment();
-    public Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    final Environment globals;
+    // Where this interpreter's runtime errors and prints go
+    final ErrorSink errors;
+    final PrintSink out;
+    // Innermost local frame, null at the top level
+    Frame frame = null;
+    // Set by a return statement, blocks and loops stop until the function call clears it
+    boolean returning = false;
+    Object returnValue = null;
+    // Call left to the caller's loop by a tail call, see ItlFunction
+    ItlCallable tailCallee = null;
+    List<Object> tailArguements = null;
+    // Runs VmFunctions called from outside the VM loop, made on first use
+    private VM vm = null;
+
+    // Natives, by the symbol id of the global they're bound to
+    static final int CLOCK = Symbols.GLOBAL.intern("clock");
+    static final int SEND_TO_TREE = Symbols.GLOBAL.intern("sendToTree");
+    static final int SPAWN = Symbols.GLOBAL.intern("spawn");
+    static final int AWAIT = Symbols.GLOBAL.intern("await");
+    static final int CHANNEL = Symbols.GLOBAL.intern("channel");
+    static final int SEND = Symbols.GLOBAL.intern("send");
+    static final int RECEIVE = Symbols.GLOBAL.intern("receive");
+    static final int PARALLEL_FOR = Symbols.GLOBAL.intern("parallelFor");
+    static final int PARALLEL_REDUCE = Symbols.GLOBAL.intern("parallelReduce");
+    static final int NANO_CLOCK = Symbols.GLOBAL.intern("nanoClock");
+    static final int SLEEP = Symbols.GLOBAL.intern("sleep");
+    static final int ANIMATE = Symbols.GLOBAL.intern("animate");
 
     Interpreter() {
-        globals.define("clock", new ItlCallable() {
-            // Takes no arugments
-            @Override
-            public int arity() { return 0; }
-
-            @Override 
-            public Object call(Interpreter interpreter, List<Object> arguements) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
-
-            @Override
-            public String toString() { return "<native fn>"; }
-        });
-
-        globals.define("sendToTree", new ItlCallable() {
-            @Override
-            public int arity() { return 1; }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguements) {
-
-                try {
-                    Process process = Runtime.getRuntime().exec(new String[] { "powershell.exe", "echo", (String)arguements.get(0),"> ", "coords.txt" });
-
-                    while(process.isAlive()) { }
+        this(Main.errors, PrintSink.standard());
+    }
 
-                    Process python = Runtime.getRuntime().exec(new String[] { "powershell.exe", "python3.11.exe", "wsClient.py"});
-                    while(python.isAlive()) {}
-                    return arguements.get(0);
-                } catch(IOException e) {
-                    e.printStackTrace();
-                }
+    Interpreter(ErrorSink errors, PrintWriter out) {
+        this(errors, PrintSink.to(out));
+    }
 
-                return (String)arguements.get(0);
+    Interpreter(ErrorSink errors, PrintSink out) {
+        this.globals = new Environment();
+        this.errors = errors;
+        this.out = out;
+
+        // Takes no arugments
+        globals.define(CLOCK, new Native(0, (interpreter, arguements) -> (double)System.currentTimeMillis() / 1000.0));
+
+        // Returns as soon as the update is queued, see TreeLink
+        globals.define(SEND_TO_TREE, new Native(1, (interpreter, arguements) -> {
+            try {
+                TreeLink.shared().send(interpreter.stringify(arguements.get(0)));
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeError(null, "Interrupted while sending to the tree");
             }
+            return arguements.get(0);
+        }));
+
+        globals.define(SPAWN, new Native(1, Task::spawn));
+        globals.define(AWAIT, new Native(1, Task::await));
+        globals.define(CHANNEL, new Native(1, Channel::create));
+        globals.define(SEND, new Native(2, Channel::send));
+        globals.define(RECEIVE, new Native(1, Channel::receive));
+        globals.define(PARALLEL_FOR, new Native(3, Parallel::forEach));
+        globals.define(PARALLEL_REDUCE, new Native(4, Parallel::reduce));
+        globals.define(NANO_CLOCK, new Native(0, Timing::nanoClock));
+        globals.define(SLEEP, new Native(1, Timing::sleep));
+        globals.define(ANIMATE, new Native(3, Timing::animate));
+    }
 
-            @Override
-            public String toString() { return "<native fn>"; } 
+    // Runs a task spawned by parent, with its own frames and call state but the same globals
+    Interpreter(Interpreter parent) {
+        this.globals = parent.globals;
+        this.errors = parent.errors;
+        this.out = parent.out;
+    }
 
-        });
+    VM vm() {
+        if(vm == null) vm = new VM(this);
+        return vm;
     }
 
-    void interpret(List<Stmt> statements) {
+    // false when the program stopped on a runtime error
+    boolean interpret(List<Stmt> statements) {
         try {
             for(Stmt statement : statements) {
                 execute(statement);
             }
+            return true;
         } catch(RuntimeError error) {
-            Main.runtimeError(error);
+            runtimeError(error);
+            return false;
         }
     }
 
 
+    // What was printed before the error comes out before it
+    void runtimeError(RuntimeError error) {
+        out.flush();
+        errors.runtimeError(error);
+    }
+
+    // Program turned into closures by the ClosureCompiler
+    void interpret(ClosureCompiler.Statement[] program) {
+        try {
+            ClosureCompiler.executeAll(program, this);
+        } catch(RuntimeError error) {
+            runtimeError(error);
+        }
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         return expr.value;
@@ -75,64 +124,28 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
-        Object left = evaluate(expr.left);
-
-        // If left -> true, dont need check right
-        if(expr.operator.type == TokenType.OR) {
-            if(isTruthy(left)) return left;
-        // Same as above but inversed
-        } else {
-            if(!isTruthy(left)) return left;
-        }
-
-        return evaluate(expr.right);
+        if(expr.node == null) expr.node = Node.root(expr);
+        return expr.node.execute(this);
     }
 
+    // Operators run on a self specialising Node tree, see Node
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-
-        switch(expr.operator.type) {
-
-            case BANG_EQUAL: return !isEqual(left, right);
-            case EQUAL_EQUAL: return isEqual(left, right);
-
-            case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left > (double)right;
-            case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left >= (double)right;
-            case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left < (double)right;
-            case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left <= (double)right;
-            case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
-            case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left / (double)right;
-            case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
-            case PLUS:
-                checkNumberOperands(expr.operator, left, right);
-                if(left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
-                }
-
-                if(left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
-                }
-
-            default:
-            return new Object();
+        if(expr.node == null) expr.node = Node.root(expr);
+        return expr.node.execute(this);
+    }
+
+    // PLUS works on two numbers or two strings
+    public Object add(Token operator, Object left, Object right) {
+        if(left instanceof Double && right instanceof Double) {
+            return (double)left + (double)right;
+        }
 
+        if(left instanceof String && right instanceof String) {
+            return (String)left + (String)right;
         }
+
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings");
     }
     
 
@@ -140,24 +153,22 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     public Object visitCallExpr(Expr.Call expr) {
         // just indentifier which gets expr from name
         Object callee = evaluate(expr.callee);
+        List<Object> arguements = evaluateArguements(expr);
+
+        ItlCallable function = expr.cache.lookup(callee, expr.paren, arguements.size());
+        try {
+            return function.call(this, arguements);
+        } catch(RuntimeError error) {
+            throw RuntimeError.at(expr.paren, error);
+        }
+    }
 
+    private List<Object> evaluateArguements(Expr.Call expr) {
         List<Object> arguements = new ArrayList<>();
         for (Expr arguement : expr.arguements) {
             arguements.add(evaluate(arguement));
         }
-
-        if(!(callee instanceof ItlCallable)) {
-            throw new RuntimeError(expr.paren, "You can only call functions and classes");
-        }
-
-        ItlCallable function = (ItlCallable)callee;
-
-        // arity -> num arguements
-        if(arguements.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " number of arguments, but instead got: " + arguements.size());
-        }
-
-        return function.call(this, arguements);
+        return arguements;
     }
 
     public void checkNumberOperands(Token operator, Object left, Object right) {
@@ -172,15 +183,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
-        switch(expr.operator.type) {
-            case MINUS: 
-            checkNumberOperand(expr.operator, right);
-                return -(double) right;
-            case BANG:
-                return !isTruthy(right);
-            default: return null;
-        }
+        if(expr.node == null) expr.node = Node.root(expr);
+        return expr.node.execute(this);
     }
 
     public void checkNumberOperand(Token operator, Object operand) {
@@ -204,13 +208,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     public String stringify(Object object) {
         if(object == null) return "nil";
-        if(object instanceof Double) {
-            String text = object.toString();
-            if(text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
-        }
+        // Double.toString without a trailing ".0", made in one go
+        if(object instanceof Double) return DoubleFormat.toString((double)object);
         return object.toString();
     }
 
@@ -222,20 +221,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         stmt.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
-
-    void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment previous = this.environment;
+    void executeBlock(List<Stmt> statements, Frame frame) {
+        Frame previous = this.frame;
         try {
-            this.environment = environment;
+            this.frame = frame;
 
             for(Stmt statement : statements) {
                 execute(statement);
-            } 
+                if(returning) break;
+            }
         } finally {
-            this.environment = previous;
+            this.frame = previous;
         }
     }
 
@@ -247,8 +243,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        ItlFunction function = new ItlFunction(stmt, environment);
-        environment.define(stmt.name.lexeme, function);
+        ItlFunction function = new ItlFunction(stmt, frame);
+        if(stmt.slot == -1) {
+            globals.define(stmt.name.symbol, function);
+        } else {
+            frame.slots[stmt.slot] = function;
+        }
         return null;
     }
 
@@ -265,17 +265,59 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitPrintStmt(Print stmt) {
-        Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        print(evaluate(stmt.expression));
         return null;
     }
 
+    // Every engine prints through here
+    public void print(Object value) {
+        if(value instanceof Double) {
+            out.println((double)value);
+            return;
+        }
+        out.println(stringify(value));
+    }
+
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.tailCall) return tailCall((Expr.Call)stmt.value);
+
         Object value = null;
         if(stmt.value != null) value = evaluate(stmt.value);
-        throw new Return(value);
+        returnValue = value;
+        returning = true;
+        return null;
+    }
+
+    // Returns to the caller's loop, which makes the call without adding to the Java stack
+    private Void tailCall(Expr.Call expr) {
+        Object callee = evaluate(expr.callee);
+        List<Object> arguements = evaluateArguements(expr);
+        ItlCallable function = expr.cache.lookup(callee, expr.paren, arguements.size());
+
+        if(function instanceof ItlFunction) {
+            tailCallee = function;
+            tailArguements = arguements;
+            returnValue = null;
+        } else {
+            try {
+                returnValue = function.call(this, arguements);
+            } catch(RuntimeError error) {
+                throw RuntimeError.at(expr.paren, error);
+            }
+        }
+        returning = true;
+        return null;
+    }
+
+    // Called when a function body ends, gives back the returned value if there is one
+    Object completeCall() {
+        if(!returning) return null;
+        Object value = returnValue;
+        returning = false;
+        returnValue = null;
+        return value;
     }
     
     @Override
@@ -285,7 +327,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
+        if(stmt.slot == -1) {
+            globals.define(stmt.name.symbol, value);
+        } else {
+            frame.slots[stmt.slot] = value;
+        }
         return null;
     }
 
@@ -293,21 +339,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     public Void visitWhileStmt(Stmt.While stmt) {
         while(isTruthy(evaluate(stmt.condition))) {
             execute(stmt.body);
+            if(returning) break;
         }
         return null;
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
-    }
-
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if(distance != null) {
-            return environment.getAt(distance, name.lexeme);
+        if(expr.depth != -1) {
+            return frame.getAt(expr.depth, expr.slot);
         } else {
-            return globals.get(name);
+            return globals.get(expr.name);
         }
     }
 
@@ -315,9 +357,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if(distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if(expr.depth != -1) {
+            frame.assignAt(expr.depth, expr.slot, value);
         } else {
             globals.assign(expr.name, value);
         }
@@ -327,7 +368,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        executeBlock(stmt.statements, new Frame(frame, stmt.frameSize));
         return null;
     }
 
@@ -1,31 +1,110 @@
 package itl;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 public class ItlFunction implements ItlCallable {
 
     private final Stmt.Function declaration;
-    private final Environment closure;
+    private final Frame closure;
+    // Only for functions declared with memo
+    private final MemoCache memo;
 
-    ItlFunction(Stmt.Function declaration, Environment closure) {
+    ItlFunction(Stmt.Function declaration, Frame closure) {
+        this(declaration, closure, declaration.memo ? new MemoCache(declaration.name.lexeme) : null);
+    }
+
+    private ItlFunction(Stmt.Function declaration, Frame closure, MemoCache memo) {
         this.closure = closure;
         this.declaration = declaration;
+        this.memo = memo;
+    }
+
+    // Same function over copies of its frames, for a Task, see Frame.copy
+    ItlFunction detach(Map<Object, Object> copies) {
+        if(closure == null) return this;
+        Frame frame = closure.copy(copies);
+        // Copying the frames can come back around to this function
+        ItlFunction copy = (ItlFunction)copies.get(this);
+        if(copy == null) {
+            copy = new ItlFunction(declaration, frame, memo);
+            copies.put(this, copy);
+        }
+        return copy;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguements) {
-        Environment environment = new Environment(closure);
-        for(int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguements.get(i));
+        if(memo != null) {
+            Object cached = memo.get(arguements);
+            if(cached != null) return MemoCache.unwrap(cached);
         }
+        return invoke(interpreter, arguements);
+    }
+
+    // Tail calls come back here as interpreter.tailCallee and run in this loop,
+    // so a chain of them takes no more Java stack than a single call
+    private Object invoke(Interpreter interpreter, List<Object> arguements) {
+        ItlFunction function = this;
+        Frame frame = null;
+        // Memo calls in the chain, they all get its final result
+        MemoCache.Pending pending = memo == null ? null : new MemoCache.Pending(memo, arguements, null);
+
+        for(;;) {
+            Stmt.Function declaration = function.declaration;
+            Object result;
+
+            JitCode jitted = function.jitted();
+            if(jitted != null) {
+                result = jitted.run(interpreter, function.closure, arguements);
+            } else {
+                // Params take the first slots of the frame
+                if(frame == null) {
+                    frame = new Frame(function.closure, declaration.frameSize);
+                } else {
+                    Arrays.fill(frame.slots, null);
+                }
+                for(int i = 0; i < declaration.params.size(); i++) {
+                    frame.slots[i] = arguements.get(i);
+                }
 
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            return returnValue.value;
+                interpreter.executeBlock(declaration.body, frame);
+                result = interpreter.completeCall();
+            }
+
+            ItlCallable next = interpreter.tailCallee;
+            if(next == null) return MemoCache.complete(pending, result);
+            arguements = interpreter.tailArguements;
+            interpreter.tailCallee = null;
+            interpreter.tailArguements = null;
+
+            if(!(next instanceof ItlFunction)) return MemoCache.complete(pending, next.call(interpreter, arguements));
+
+            MemoCache cache = ((ItlFunction)next).memo;
+            if(cache != null) {
+                Object cached = cache.get(arguements);
+                if(cached != null) return MemoCache.complete(pending, MemoCache.unwrap(cached));
+                pending = new MemoCache.Pending(cache, arguements, pending);
+            }
+
+            // Calling itself again, the frame can be reused unless a closure holds on to it
+            if(next != function || declaration.hasClosures) frame = null;
+            function = (ItlFunction)next;
         }
+    }
+
+    // Hot functions get compiled once, if that fails they stay interpreted
+    private JitCode jitted() {
+        if(declaration.jitted == null && Jit.enabled && declaration.calls < Jit.THRESHOLD && ++declaration.calls == Jit.THRESHOLD) {
+            declaration.jitted = Jit.compile(declaration);
+        }
+        return declaration.jitted;
+    }
 
-        return null;
+    // Safe to run on many threads at once, see Parallel
+    boolean independent() {
+        return declaration.independent;
     }
 
     @Override
@@ -0,0 +1,122 @@
+package itl;
+
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Map;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+// JSR-223 engine, found by ScriptEngineManager under the names in ItlScriptEngineFactory
+// Bindings become globals before a run, and the globals are copied back into the engine scope after it
+// Every eval gets its own ExecutionContext, so one engine can evaluate scripts on many threads
+public class ItlScriptEngine extends AbstractScriptEngine implements Compilable {
+
+    private final ItlScriptEngineFactory factory;
+
+    ItlScriptEngine(ItlScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return compile(reader).eval(context);
+    }
+
+    @Override
+    public javax.script.CompiledScript compile(String script) throws ScriptException {
+        Errors errors = new Errors();
+        return compiled(CompiledScript.compile(script, errors), errors);
+    }
+
+    @Override
+    public javax.script.CompiledScript compile(Reader script) throws ScriptException {
+        Errors errors = new Errors();
+        try {
+            return compiled(CompiledScript.compile(script, errors), errors);
+        } catch(UncheckedIOException e) {
+            throw new ScriptException(e);
+        }
+    }
+
+    private javax.script.CompiledScript compiled(CompiledScript script, Errors errors) throws ScriptException {
+        if(script == null) throw errors.exception();
+        return new Compiled(script);
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private final class Compiled extends javax.script.CompiledScript {
+        private final CompiledScript script;
+
+        Compiled(CompiledScript script) {
+            this.script = script;
+        }
+
+        // Scripts don't produce a value, so this is always null
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            Writer writer = context.getWriter();
+            PrintWriter out = writer instanceof PrintWriter ? (PrintWriter)writer : new PrintWriter(writer);
+            Errors errors = new Errors();
+            ExecutionContext execution = new ExecutionContext(out, errors);
+
+            Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+            if(global != null) define(execution, global);
+            Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+            if(engine != null) define(execution, engine);
+
+            boolean completed = execution.run(script);
+            if(engine != null) engine.putAll(execution.globals());
+
+            if(!completed) throw errors.exception();
+            return null;
+        }
+
+        private void define(ExecutionContext execution, Bindings bindings) {
+            for(Map.Entry<String, Object> binding : bindings.entrySet()) {
+                execution.define(binding.getKey(), binding.getValue());
+            }
+        }
+
+        @Override
+        public ItlScriptEngine getEngine() {
+            return ItlScriptEngine.this;
+        }
+    }
+
+    // Keeps the errors of one compile or run for the ScriptException
+    private static final class Errors extends ErrorSink {
+        private final StringBuilder messages = new StringBuilder();
+
+        @Override
+        protected void report(String message) {
+            if(messages.length() > 0) messages.append('\n');
+            messages.append(message);
+        }
+
+        ScriptException exception() {
+            return new ScriptException(messages.toString());
+        }
+    }
+}
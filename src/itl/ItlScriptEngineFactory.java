@@ -0,0 +1,86 @@
+package itl;
+
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+// Registered in META-INF/services, so new ScriptEngineManager().getEngineByName("itl") finds it
+public class ItlScriptEngineFactory implements ScriptEngineFactory {
+
+    private static final String VERSION = "1.0";
+
+    @Override
+    public String getEngineName() {
+        return "itl";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return List.of("tlang");
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return List.of("text/x-tlang");
+    }
+
+    @Override
+    public List<String> getNames() {
+        return List.of("itl", "tlang", "tree-lang");
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "Interpreted Tree Language";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        switch(key) {
+            case ScriptEngine.ENGINE: return getEngineName();
+            case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+            case ScriptEngine.NAME: return getEngineName();
+            case ScriptEngine.LANGUAGE: return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            // Each eval runs in its own ExecutionContext
+            case "THREADING": return "MULTITHREADED";
+            default: return null;
+        }
+    }
+
+    // There are no objects, so there are no methods to call on them
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        return m + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "print \"" + toDisplay + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        StringBuilder program = new StringBuilder();
+        for(String statement : statements) {
+            program.append(statement).append(";\n");
+        }
+        return program.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new ItlScriptEngine(this);
+    }
+}
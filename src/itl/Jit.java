@@ -0,0 +1,613 @@
+package itl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Translates the body of a hot function into a JVM class so HotSpot can optimise it directly
+// Locals become JVM locals, operators become calls into JitRuntime
+// Anything we can't translate (nested functions) leaves the function in the Interpreter
+final class Jit implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    static boolean enabled = true;
+    // Calls before a function gets compiled
+    static final int THRESHOLD = Integer.getInteger("itl.jit.threshold", 1000);
+    private static final boolean DEBUG = Boolean.getBoolean("itl.jit.debug");
+
+    // Bails out of compiling a function
+    private static class Unsupported extends RuntimeException {
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    // Opcodes we emit
+    private static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11;
+    private static final int ALOAD = 0x19, ALOAD_0 = 0x2a, AALOAD = 0x32, ASTORE = 0x3a, ASTORE_0 = 0x4b, AASTORE = 0x53;
+    private static final int POP = 0x57, DUP = 0x59, IFEQ = 0x99, IFNE = 0x9a, GOTO = 0xa7;
+    private static final int ARETURN = 0xb0, RETURN = 0xb1, GETSTATIC = 0xb2, GETFIELD = 0xb4;
+    private static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, INVOKEINTERFACE = 0xb9;
+    private static final int ANEWARRAY = 0xbd, CHECKCAST = 0xc0;
+
+    // JVM locals of the generated run(interpreter, closure, arguements)
+    private static final int INTERPRETER = 1, CLOSURE = 2, ARGUEMENTS = 3, FIRST_SLOT = 4;
+
+    private static final String RUNTIME = "itl/JitRuntime";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String TOKEN = "Litl/Token;";
+    private static final String BINARY = "(" + OBJECT + OBJECT + TOKEN + ")" + OBJECT;
+
+    private final Stmt.Function function;
+
+    // Class file constant pool
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    // Objects handed to the JitCode constructor
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+
+    private byte[] code = new byte[256];
+    private int length = 0;
+    private int stack = 0;
+    private int maxStack = 0;
+
+    // First JVM local of each scope inside the function, innermost last
+    private final List<Integer> scopes = new ArrayList<>();
+    private int nextLocal = FIRST_SLOT;
+    private int maxLocals = FIRST_SLOT;
+
+    private Jit(Stmt.Function function) {
+        this.function = function;
+    }
+
+    // Returns null if the function can't be compiled
+    static JitCode compile(Stmt.Function function) {
+        try {
+            Jit jit = new Jit(function);
+            byte[] bytes = jit.generate();
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, Object[].class));
+            Object[] constants = jit.constants.toArray();
+            return (JitCode)constructor.invoke(constants);
+        } catch(Unsupported e) {
+            if(DEBUG) System.err.println("[jit] " + function.name.lexeme + " not compiled: " + e.getMessage());
+            return null;
+        } catch(Throwable e) {
+            if(DEBUG) System.err.println("[jit] " + function.name.lexeme + " failed: " + e);
+            return null;
+        }
+    }
+
+    private byte[] generate() throws IOException {
+        scopes.add(FIRST_SLOT);
+        nextLocal = FIRST_SLOT + function.frameSize;
+        maxLocals = nextLocal;
+        for(Stmt statement : function.body) {
+            compile(statement);
+        }
+        op(ACONST_NULL, 1);
+        op(ARETURN, -1);
+        byte[] body = Arrays.copyOf(code, length);
+
+        // Prologue: params into their slots, everything else starts out nil
+        // Jumps are relative so the body can just be appended
+        length = 0;
+        for(int i = 0; i < function.params.size(); i++) {
+            loadLocal(ARGUEMENTS);
+            pushInt(i);
+            invoke(INVOKEINTERFACE, "java/util/List", "get", "(I)" + OBJECT, -1);
+            storeLocal(FIRST_SLOT + i);
+        }
+        for(int local = FIRST_SLOT + function.params.size(); local < maxLocals; local++) {
+            op(ACONST_NULL, 1);
+            storeLocal(local);
+        }
+        for(byte b : body) emit(b);
+
+        return classFile();
+    }
+
+    private byte[] classFile() throws IOException {
+        int thisClass = classRef("itl/Jit$" + function.name.lexeme);
+        int superClass = classRef("itl/JitCode");
+        int codeName = utf8("Code");
+        int initName = utf8("<init>");
+        int initDesc = utf8("([Ljava/lang/Object;)V");
+        int superInit = methodRef("itl/JitCode", "<init>", "([Ljava/lang/Object;)V");
+        int runName = utf8("run");
+        int runDesc = utf8("(Litl/Interpreter;Litl/Frame;Ljava/util/List;)" + OBJECT);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        // Version 49 so the verifier infers types and we need no StackMapTable
+        out.writeShort(0);
+        out.writeShort(49);
+        out.writeShort(poolCount);
+        poolBytes.writeTo(out);
+        out.writeShort(0x0030);     // ACC_FINAL | ACC_SUPER
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0);          // interfaces
+        out.writeShort(0);          // fields
+        out.writeShort(2);          // methods
+
+        byte[] init = { (byte)ALOAD_0, (byte)(ALOAD_0 + 1), (byte)INVOKESPECIAL, (byte)(superInit >> 8), (byte)superInit, (byte)RETURN };
+        writeMethod(out, initName, initDesc, codeName, 2, 2, init);
+        writeMethod(out, runName, runDesc, codeName, maxStack, maxLocals, Arrays.copyOf(code, length));
+
+        out.writeShort(0);          // attributes
+        return bytes.toByteArray();
+    }
+
+    private void writeMethod(DataOutputStream out, int name, int descriptor, int codeName, int maxStack, int maxLocals, byte[] body) throws IOException {
+        out.writeShort(0);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + body.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeShort(0);          // exception table
+        out.writeShort(0);          // attributes
+    }
+
+    // Constant pool
+
+    private int entry(String key, int size) {
+        Integer index = poolIndex.get(key);
+        if(index != null) return index;
+        poolIndex.put(key, poolCount);
+        poolCount += size;
+        if(poolCount > 0xFFFF) throw new Unsupported("constant pool too large");
+        return poolCount - size;
+    }
+
+    private int utf8(String value) {
+        String key = "U" + value;
+        if(poolIndex.containsKey(key)) return poolIndex.get(key);
+        try {
+            pool.writeByte(1);
+            pool.writeUTF(value);
+        } catch(IOException e) {
+            throw new Unsupported(e.getMessage());
+        }
+        return entry(key, 1);
+    }
+
+    private int classRef(String name) {
+        String key = "C" + name;
+        if(poolIndex.containsKey(key)) return poolIndex.get(key);
+        int nameIndex = utf8(name);
+        write(7, nameIndex);
+        return entry(key, 1);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        String key = "N" + name + " " + descriptor;
+        if(poolIndex.containsKey(key)) return poolIndex.get(key);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        write(12, nameIndex, descriptorIndex);
+        return entry(key, 1);
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        String key = "M" + tag + owner + "." + name + descriptor;
+        if(poolIndex.containsKey(key)) return poolIndex.get(key);
+        int ownerIndex = classRef(owner);
+        int typeIndex = nameAndType(name, descriptor);
+        write(tag, ownerIndex, typeIndex);
+        return entry(key, 1);
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        return member(10, owner, name, descriptor);
+    }
+
+    private void write(int tag, int... shorts) {
+        try {
+            pool.writeByte(tag);
+            for(int value : shorts) pool.writeShort(value);
+        } catch(IOException e) {
+            throw new Unsupported(e.getMessage());
+        }
+    }
+
+    // Code emission
+
+    private void emit(int b) {
+        if(length == code.length) code = Arrays.copyOf(code, length * 2);
+        code[length++] = (byte)b;
+    }
+
+    private void emitShort(int value) {
+        emit(value >> 8);
+        emit(value);
+    }
+
+    private void op(int opcode, int stackEffect) {
+        emit(opcode);
+        stack += stackEffect;
+        if(stack > maxStack) maxStack = stack;
+    }
+
+    private void pushInt(int value) {
+        if(value >= -1 && value <= 5) {
+            op(ICONST_0 + value, 1);
+        } else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH, 1);
+            emit(value);
+        } else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            op(SIPUSH, 1);
+            emitShort(value);
+        } else {
+            throw new Unsupported("constant out of range");
+        }
+    }
+
+    private void loadLocal(int local) {
+        if(local <= 3) {
+            op(ALOAD_0 + local, 1);
+        } else if(local <= 0xFF) {
+            op(ALOAD, 1);
+            emit(local);
+        } else {
+            throw new Unsupported("too many locals");
+        }
+    }
+
+    private void storeLocal(int local) {
+        if(local <= 3) {
+            op(ASTORE_0 + local, -1);
+        } else if(local <= 0xFF) {
+            op(ASTORE, -1);
+            emit(local);
+        } else {
+            throw new Unsupported("too many locals");
+        }
+    }
+
+    // Pushes constants[index], cast to the given class if not null
+    private void loadConstant(Object value, String cast) {
+        Integer index = constantIndex.get(value);
+        if(index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+
+        loadLocal(0);
+        op(GETFIELD, 0);
+        emitShort(member(9, "itl/JitCode", "constants", "[" + OBJECT));
+        pushInt(index);
+        op(AALOAD, -1);
+        if(cast != null) {
+            op(CHECKCAST, 0);
+            emitShort(classRef(cast));
+        }
+    }
+
+    private void invoke(int opcode, String owner, String name, String descriptor, int stackEffect) {
+        if(opcode == INVOKEINTERFACE) {
+            op(opcode, stackEffect);
+            emitShort(member(11, owner, name, descriptor));
+            emit(argumentSlots(descriptor) + 1);
+            emit(0);
+        } else {
+            op(opcode, stackEffect);
+            emitShort(methodRef(owner, name, descriptor));
+        }
+    }
+
+    // Only counts what we pass: ints and references
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        for(int i = 1; descriptor.charAt(i) != ')'; i++) {
+            char c = descriptor.charAt(i);
+            if(c == 'L') i = descriptor.indexOf(';', i);
+            slots++;
+        }
+        return slots;
+    }
+
+    private void runtime(String name, String descriptor, int stackEffect) {
+        invoke(INVOKESTATIC, RUNTIME, name, descriptor, stackEffect);
+    }
+
+    // Returns the offset of the jump to patch
+    private int jump(int opcode, int stackEffect) {
+        int at = length;
+        op(opcode, stackEffect);
+        emitShort(0);
+        return at;
+    }
+
+    private void patch(int at) {
+        int offset = length - at;
+        if(offset > Short.MAX_VALUE) throw new Unsupported("method too large");
+        code[at + 1] = (byte)(offset >> 8);
+        code[at + 2] = (byte)offset;
+    }
+
+    private void jumpBack(int target) {
+        int offset = target - length;
+        if(offset < Short.MIN_VALUE) throw new Unsupported("method too large");
+        op(GOTO, 0);
+        emitShort(offset);
+    }
+
+    // JVM local holding a slot of this function, -1 if it lives in the closure
+    private int local(int depth, int slot) {
+        if(depth >= scopes.size()) return -1;
+        return scopes.get(scopes.size() - 1 - depth) + slot;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        int saved = nextLocal;
+        scopes.add(nextLocal);
+        nextLocal += stmt.frameSize;
+        if(nextLocal > maxLocals) maxLocals = nextLocal;
+
+        for(Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+
+        scopes.remove(scopes.size() - 1);
+        nextLocal = saved;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        op(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // Closures need real Frames to capture
+        throw new Unsupported("nested function " + stmt.name.lexeme);
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        runtime("isTruthy", "(" + OBJECT + ")Z", 0);
+        int elseJump = jump(IFEQ, -1);
+        compile(stmt.thenBranch);
+
+        if(stmt.elseBranch == null) {
+            patch(elseJump);
+            return null;
+        }
+
+        int endJump = jump(GOTO, 0);
+        patch(elseJump);
+        compile(stmt.elseBranch);
+        patch(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        loadLocal(INTERPRETER);
+        compile(stmt.expression);
+        runtime("print", "(Litl/Interpreter;" + OBJECT + ")V", -2);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.tailCall) {
+            call((Expr.Call)stmt.value, "tailCall");
+        } else if(stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            op(ACONST_NULL, 1);
+        }
+        op(ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if(stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            op(ACONST_NULL, 1);
+        }
+        storeLocal(local(0, stmt.slot));
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = length;
+        compile(stmt.condition);
+        runtime("isTruthy", "(" + OBJECT + ")Z", 0);
+        int exitJump = jump(IFEQ, -1);
+        compile(stmt.body);
+        jumpBack(loopStart);
+        patch(exitJump);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        if(expr.depth == -1) {
+            loadLocal(INTERPRETER);
+            loadConstant(expr.name, "itl/Token");
+            runtime("assignGlobal", "(" + OBJECT + "Litl/Interpreter;" + TOKEN + ")" + OBJECT, -2);
+            return null;
+        }
+
+        int local = local(expr.depth, expr.slot);
+        if(local != -1) {
+            op(DUP, 1);
+            storeLocal(local);
+        } else {
+            loadLocal(CLOSURE);
+            pushInt(expr.depth - scopes.size());
+            pushInt(expr.slot);
+            runtime("assignAt", "(" + OBJECT + "Litl/Frame;II)" + OBJECT, -3);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        switch(expr.operator.type) {
+            case BANG_EQUAL:
+                runtime("notEqual", "(" + OBJECT + OBJECT + ")" + OBJECT, -1);
+                return null;
+            case EQUAL_EQUAL:
+                runtime("equal", "(" + OBJECT + OBJECT + ")" + OBJECT, -1);
+                return null;
+            default:
+                break;
+        }
+
+        String helper;
+        switch(expr.operator.type) {
+            case GREATER: helper = "greater"; break;
+            case GREATER_EQUAL: helper = "greaterEqual"; break;
+            case LESS: helper = "less"; break;
+            case LESS_EQUAL: helper = "lessEqual"; break;
+            case MINUS: helper = "subtract"; break;
+            case SLASH: helper = "divide"; break;
+            case STAR: helper = "multiply"; break;
+            case PLUS: helper = "add"; break;
+            default: throw new Unsupported("operator " + expr.operator.lexeme);
+        }
+        loadConstant(expr.operator, "itl/Token");
+        runtime(helper, BINARY, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        call(expr, "call");
+        return null;
+    }
+
+    // helper is the JitRuntime method making the call
+    private void call(Expr.Call expr, String helper) {
+        loadLocal(INTERPRETER);
+        compile(expr.callee);
+
+        pushInt(expr.arguements.size());
+        op(ANEWARRAY, 0);
+        emitShort(classRef("java/lang/Object"));
+        for(int i = 0; i < expr.arguements.size(); i++) {
+            op(DUP, 1);
+            pushInt(i);
+            compile(expr.arguements.get(i));
+            op(AASTORE, -3);
+        }
+
+        loadConstant(expr.cache, "itl/InlineCache");
+        loadConstant(expr.paren, "itl/Token");
+        runtime(helper, "(Litl/Interpreter;" + OBJECT + "[" + OBJECT + "Litl/InlineCache;" + TOKEN + ")" + OBJECT, -4);
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value == null) {
+            op(ACONST_NULL, 1);
+        } else if(expr.value instanceof Boolean) {
+            op(GETSTATIC, 1);
+            emitShort(member(9, "java/lang/Boolean", (boolean)expr.value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;"));
+        } else {
+            loadConstant(expr.value, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        op(DUP, 1);
+        runtime("isTruthy", "(" + OBJECT + ")Z", 0);
+        int endJump = jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, -1);
+        op(POP, -1);
+        compile(expr.right);
+        patch(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        switch(expr.operator.type) {
+            case MINUS:
+                loadConstant(expr.operator, "itl/Token");
+                runtime("negate", "(" + OBJECT + TOKEN + ")" + OBJECT, -1);
+                break;
+            case BANG:
+                runtime("not", "(" + OBJECT + ")" + OBJECT, 0);
+                break;
+            default:
+                throw new Unsupported("operator " + expr.operator.lexeme);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if(expr.depth == -1) {
+            loadLocal(INTERPRETER);
+            loadConstant(expr.name, "itl/Token");
+            runtime("global", "(Litl/Interpreter;" + TOKEN + ")" + OBJECT, -1);
+            return null;
+        }
+
+        int local = local(expr.depth, expr.slot);
+        if(local != -1) {
+            loadLocal(local);
+        } else {
+            loadLocal(CLOSURE);
+            pushInt(expr.depth - scopes.size());
+            pushInt(expr.slot);
+            invoke(INVOKEVIRTUAL, "itl/Frame", "getAt", "(II)" + OBJECT, -2);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,15 @@
+package itl;
+
+import java.util.List;
+
+// Base class of the hidden classes the Jit generates, one per function body
+abstract class JitCode {
+    // Tokens and literals the generated code refers to
+    final Object[] constants;
+
+    JitCode(Object[] constants) {
+        this.constants = constants;
+    }
+
+    abstract Object run(Interpreter interpreter, Frame closure, List<Object> arguements);
+}
@@ -0,0 +1,134 @@
+package itl;
+
+import java.util.Arrays;
+
+// Static helpers called from Jit generated code
+// Each one mirrors the matching case in the Interpreter, errors included
+final class JitRuntime {
+
+    private JitRuntime() { }
+
+    static boolean isTruthy(Object object) {
+        if(object == null) return false;
+        if(object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+    static Object not(Object right) {
+        return !isTruthy(right);
+    }
+
+    static Object negate(Object right, Token operator) {
+        if(!(right instanceof Double)) throw new RuntimeError(operator, "Operand must be a number");
+        return -(double)right;
+    }
+
+    static Object equal(Object left, Object right) {
+        return isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right) {
+        return !isEqual(left, right);
+    }
+
+    static Object greater(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left > (double)right;
+    }
+
+    static Object greaterEqual(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left >= (double)right;
+    }
+
+    static Object less(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left < (double)right;
+    }
+
+    static Object lessEqual(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left <= (double)right;
+    }
+
+    static Object add(Object left, Object right, Token operator) {
+        if(left instanceof Double && right instanceof Double) {
+            return (double)left + (double)right;
+        }
+
+        if(left instanceof String && right instanceof String) {
+            return (String)left + (String)right;
+        }
+
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings");
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left - (double)right;
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left * (double)right;
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left / (double)right;
+    }
+
+    static Object global(Interpreter interpreter, Token name) {
+        return interpreter.globals.get(name);
+    }
+
+    static Object assignGlobal(Object value, Interpreter interpreter, Token name) {
+        interpreter.globals.assign(name, value);
+        return value;
+    }
+
+    static Object assignAt(Object value, Frame frame, int distance, int slot) {
+        frame.assignAt(distance, slot, value);
+        return value;
+    }
+
+    static Object call(Interpreter interpreter, Object callee, Object[] arguements, InlineCache cache, Token paren) {
+        ItlCallable function = cache.lookup(callee, paren, arguements.length);
+        try {
+            return function.call(interpreter, Arrays.asList(arguements));
+        } catch(RuntimeError error) {
+            throw RuntimeError.at(paren, error);
+        }
+    }
+
+    // Interpreted callees are left to the caller's loop, see ItlFunction
+    static Object tailCall(Interpreter interpreter, Object callee, Object[] arguements, InlineCache cache, Token paren) {
+        ItlCallable function = cache.lookup(callee, paren, arguements.length);
+        if(function instanceof ItlFunction || function instanceof CompiledFunction) {
+            interpreter.tailCallee = function;
+            interpreter.tailArguements = Arrays.asList(arguements);
+            return null;
+        }
+        try {
+            return function.call(interpreter, Arrays.asList(arguements));
+        } catch(RuntimeError error) {
+            throw RuntimeError.at(paren, error);
+        }
+    }
+
+    static void print(Interpreter interpreter, Object value) {
+        interpreter.print(value);
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        if(a == null && b == null) return true;
+        if(a == null) return false;
+
+        return a.equals(b);
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if(left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError(operator, "Operands must be numbers");
+    }
+}
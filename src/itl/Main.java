@@ -3,37 +3,140 @@ package itl;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
 public class Main {
 
-    public static final Interpreter interpreter = new Interpreter();
+    // The command line reports everything to standard error
+    static final ErrorSink errors = ErrorSink.to(System.err);
+    public static final Interpreter interpreter = new Interpreter(errors, PrintSink.standard());
 
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    // How the resolved tree gets executed
+    enum Engine { TREE, VM, CLOSURE }
+    static Engine engine = Engine.TREE;
 
     public static void main(String[] args) throws IOException {
+        if(args.length > 0 && args[0].equals("compile")) {
+            compileCommand(args);
+            return;
+        }
+        if(args.length > 0 && args[0].equals("daemon")) {
+            daemonCommand(args);
+            return;
+        }
+
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("--"); first++) {
+            switch (args[first]) {
+                case "--vm": engine = Engine.VM; break;
+                case "--closure": engine = Engine.CLOSURE; break;
+                case "--no-jit": Jit.enabled = false; break;
+                case "--no-cache": AstCache.enabled = false; break;
+                default: usage();
+            }
+        }
+
         // check if file is inputed
-        if (args.length > 1) {
-            System.out.println("Usage: itl [script]");
-            System.exit(64);
-        } else if (args.length == 1)
-            runFile(args[0]);
+        if (args.length - first > 1) {
+            usage();
+        } else if (args.length - first == 1)
+            runFile(args[first]);
         else
             runFile("program.tlang");
 
     }
 
+    private static void usage() {
+        System.out.println("Usage: itl [--vm | --closure] [--no-jit] [--no-cache] [script | image.itlc]");
+        System.out.println("       itl compile script [-o image.itlc]");
+        System.out.println("       itl daemon [--no-jit]");
+        System.exit(64);
+    }
+
+    // itl daemon, scripts are then run through Client
+    private static void daemonCommand(String[] args) throws IOException {
+        for(int i = 1; i < args.length; i++) {
+            if(args[i].equals("--no-jit")) {
+                Jit.enabled = false;
+            } else {
+                usage();
+            }
+        }
+        Daemon.serve(Client.socket());
+    }
+
+    // itl compile foo.tlang -o foo.itlc
+    private static void compileCommand(String[] args) throws IOException {
+        String output = null;
+        if(args.length == 4 && args[2].equals("-o")) {
+            output = args[3];
+        } else if(args.length == 2) {
+            output = args[1].replaceFirst("\\.tlang$", "") + ".itlc";
+        } else {
+            usage();
+        }
+
+        List<Stmt> statements;
+        try(Reader reader = new InputStreamReader(Files.newInputStream(Paths.get(args[1])), Charset.defaultCharset())) {
+            statements = compile(new Scanner(reader));
+        }
+        if(errors.hadError) System.exit(65);
+
+        ProgramImage.write(statements, Paths.get(output));
+    }
+
     // Get data from file and call run()
     public static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        int status = runFile(Paths.get(path), engine, AstCache.enabled, interpreter);
+        if(status != 0) System.exit(status);
+    }
+
+    // Returns the exit status: 0, 65 after compile errors or 70 after a runtime error
+    static int runFile(Path path, Engine engine, boolean cache, Interpreter interpreter) throws IOException {
+        ErrorSink errors = interpreter.errors;
+        List<Stmt> statements;
+
+        if(path.toString().endsWith(".itlc")) {
+            // Programs from itl compile run without being scanned or parsed
+            try {
+                statements = ProgramImage.read(path);
+            } catch(IOException e) {
+                errors.report(e.getMessage());
+                return 65;
+            }
+        } else {
+            Charset charset = Charset.defaultCharset();
+
+            // An unchanged script runs straight from its compiled tree
+            Path cached = cache ? AstCache.file(path, charset) : null;
+            statements = cached == null ? null : AstCache.load(cached);
+
+            if(statements == null) {
+                // The scanner reads as the parser goes, the file is never held in memory whole
+                try(Reader reader = new InputStreamReader(Files.newInputStream(path), charset)) {
+                    statements = compile(new Scanner(reader, errors));
+                }
+                if(statements != null && cached != null) AstCache.store(cached, statements);
+            }
+        }
+
+        try {
+            if(statements != null) execute(statements, engine, interpreter);
+        } finally {
+            // Even a StackOverflowError about to end the JVM leaves what was printed before it
+            interpreter.out.flush();
+        }
+        // Updates still queued for the tree go out before the program counts as done
+        TreeLink.flush();
 
-        if(hadError) System.exit(65);
-        if(hadRuntimeError) System.exit(70);
+        if(errors.hadError) return 65;
+        if(errors.hadRuntimeError) return 70;
+        return 0;
     }
 
     // Read in a line and call run()
@@ -51,41 +154,42 @@ public class Main {
     }
 
     public static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        List<Stmt> statements = compile(new Scanner(source));
+        if(statements != null) execute(statements, engine, interpreter);
+        interpreter.out.flush();
+    }
 
-        Parser parser = new Parser(tokens);
+    // The resolved and simplified tree, null after a compile error
+    // Errors go to the scanner's sink
+    static List<Stmt> compile(Scanner scanner) {
+        ErrorSink errors = scanner.errors;
+        Parser parser = new Parser(scanner);
         List<Stmt> statements = parser.parse();
-        if(hadError) return;
-        Resolver resolver = new Resolver(interpreter);
+        if(errors.hadError) return null;
+        Resolver resolver = new Resolver(errors);
         resolver.resolve(statements);
-        if(hadError) return;
-        interpreter.interpret(statements);
+        if(errors.hadError) return null;
 
+        // Resolve again so slots and depths match the simplified tree
+        statements = new Optimizer().optimize(statements);
+        new Resolver(errors).resolve(statements);
+        return statements;
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
-
-    public static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
-    }
-
-    static void error(Token token, String message) {
-        if(token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+    private static void execute(List<Stmt> statements, Engine engine, Interpreter interpreter) {
+        switch(engine) {
+            case VM:
+                Chunk script = new BytecodeCompiler(interpreter.errors).compile(statements);
+                if(interpreter.errors.hadError) return;
+                interpreter.vm().interpret(script);
+                break;
+            case CLOSURE:
+                interpreter.interpret(new ClosureCompiler().compile(statements));
+                break;
+            default:
+                interpreter.interpret(statements);
         }
-    }
 
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line" + error.token.line + "]"); 
-        hadRuntimeError = true;
     }
 
-
-
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+package itl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+// Results of a memo function, keyed by its arguements
+// Holds at most CAPACITY entries, the least recently used one goes first
+// Tasks can call the same function at once, and a get reorders the map, so both ends are synchronized
+final class MemoCache {
+
+    static final int CAPACITY = Integer.getInteger("itl.memo.size", 10_000);
+    private static final boolean DEBUG = Boolean.getBoolean("itl.memo.debug");
+    // Caches still in use, reported by one hook at exit, only kept with itl.memo.debug
+    private static final Set<MemoCache> LIVE = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    static {
+        if(DEBUG) Runtime.getRuntime().addShutdownHook(new Thread(MemoCache::reportLive));
+    }
+
+    // Stored in place of nil so a cached nil isn't taken for a miss
+    private static final Object NIL = new Object();
+
+    private final String name;
+    private final Map<List<Object>, Object> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    long hits;
+    long misses;
+
+    MemoCache(String name) {
+        this.name = name;
+        if(DEBUG) LIVE.add(this);
+    }
+
+    // Returns the cached result, or null on a miss
+    synchronized Object get(List<Object> arguements) {
+        Object value = entries.get(arguements);
+        if(value == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return value;
+    }
+
+    synchronized void put(List<Object> arguements, Object value) {
+        entries.put(arguements, value == null ? NIL : value);
+    }
+
+    static Object unwrap(Object cached) {
+        return cached == NIL ? null : cached;
+    }
+
+    // Calls still waiting for their result, a chain of tail calls all end with the same one
+    static final class Pending {
+        final MemoCache cache;
+        final List<Object> arguements;
+        final Pending next;
+
+        Pending(MemoCache cache, List<Object> arguements, Pending next) {
+            this.cache = cache;
+            this.arguements = arguements;
+            this.next = next;
+        }
+    }
+
+    // Caches value for every pending call, then returns it
+    static Object complete(Pending pending, Object value) {
+        for(; pending != null; pending = pending.next) {
+            pending.cache.put(pending.arguements, value);
+        }
+        return value;
+    }
+
+    private static void reportLive() {
+        List<MemoCache> caches;
+        synchronized(LIVE) {
+            caches = new ArrayList<>(LIVE);
+        }
+        for(MemoCache cache : caches) {
+            cache.report();
+        }
+    }
+
+    private synchronized void report() {
+        System.err.println("[memo] " + name + ": " + hits + " hits, " + misses + " misses, " + entries.size() + " cached");
+    }
+}
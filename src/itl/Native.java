@@ -0,0 +1,36 @@
+package itl;
+
+import java.util.List;
+
+// A function implemented in Java and bound to a global by the Interpreter
+// Natives don't know where they were called from, the errors they throw carry no token
+// and the call site fills it in, see RuntimeError.at
+final class Native implements ItlCallable {
+
+    interface Body {
+        Object call(Interpreter interpreter, List<Object> arguements);
+    }
+
+    private final int arity;
+    private final Body body;
+
+    Native(int arity, Body body) {
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguements) {
+        return body.call(interpreter, arguements);
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,680 @@
+package itl;
+
+import java.lang.invoke.VarHandle;
+
+// Executable tree for operator expressions (Binary, Unary, Logical)
+// Operator nodes start uninitialized, look at the operand types they get and
+// replace themselves with a node specialised for them. A specialised node that
+// sees anything else replaces itself with the generic one, which never changes again
+// Subtrees the Resolver proved numeric skip that and run unboxed, see NumericNode
+abstract class Node {
+    Node parent;
+
+    abstract Object execute(Interpreter interpreter);
+
+    // Nodes holding children swap one for another here
+    void replaceChild(Node oldChild, Node newChild) {
+        throw new IllegalStateException(getClass().getSimpleName() + " has no children");
+    }
+
+    // Tasks run the same trees, a thread that sees the new node must also see its fields
+    // The fence orders them before the store publishing it, reads after it depend on the node so aren't reordered
+    <T extends Node> T replace(T node) {
+        node.parent = parent;
+        VarHandle.storeStoreFence();
+        parent.replaceChild(this, node);
+        return node;
+    }
+
+    <T extends Node> T adopt(T child) {
+        child.parent = this;
+        return child;
+    }
+
+    // Entry point stored on the Expr, its child may be replaced
+    static Root root(Expr expr) {
+        Root root = new Root(build(expr));
+        VarHandle.storeStoreFence();
+        return root;
+    }
+
+    static Node build(Expr expr) {
+        if(expr instanceof Expr.Grouping) return build(((Expr.Grouping)expr).expression);
+        if(expr instanceof Expr.Literal) return literal(((Expr.Literal)expr).value);
+
+        if(expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            return binary(binary, build(binary.left), build(binary.right));
+        }
+
+        if(expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            return unary(unary.operator, build(unary.right));
+        }
+
+        if(expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical)expr;
+            return logical(logical.operator, build(logical.left), build(logical.right));
+        }
+
+        return new Evaluate(expr);
+    }
+
+    static Node literal(Object value) {
+        if(value instanceof Double) return new NumericConstant((Double)value);
+        return new Constant(value);
+    }
+
+    static Node binary(Expr.Binary expr, Node left, Node right) {
+        Token operator = expr.operator;
+        switch(operator.type) {
+            case EQUAL_EQUAL: return new Equal(operator, left, right);
+            case BANG_EQUAL: return new NotEqual(operator, left, right);
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                // One number means the other has to be one too
+                if(left instanceof NumericNode || right instanceof NumericNode) {
+                    return UnboxedComparison.create(operator, numeric(left), numeric(right));
+                }
+                return new UninitializedBinary(operator, left, right);
+            default:
+                if(expr.numeric) return UnboxedArithmetic.create(operator, numeric(left), numeric(right));
+                return new UninitializedBinary(operator, left, right);
+        }
+    }
+
+    static Node unary(Token operator, Node right) {
+        if(operator.type == TokenType.BANG) return new Not(right);
+        return new UnboxedNegate(operator, numeric(right));
+    }
+
+    static Node logical(Token operator, Node left, Node right) {
+        if(operator.type == TokenType.OR) return new Or(left, right);
+        return new And(left, right);
+    }
+
+    // Operands that aren't proven numbers get checked when they're unboxed
+    private static NumericNode numeric(Node node) {
+        if(node instanceof NumericNode) return (NumericNode)node;
+        return new Unbox(node);
+    }
+
+    static class Root extends Node {
+        Node child;
+
+        Root(Node child) {
+            this.child = adopt(child);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return child.execute(interpreter);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(child == oldChild) child = newChild;
+        }
+    }
+
+    static class Constant extends Node {
+        final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return value;
+        }
+    }
+
+    // Anything that isn't an operator goes back through the visitor
+    static class Evaluate extends Node {
+        final Expr expr;
+
+        Evaluate(Expr expr) {
+            this.expr = expr;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return interpreter.evaluate(expr);
+        }
+    }
+
+    abstract static class BinaryNode extends Node {
+        final Token operator;
+        Node left;
+        Node right;
+
+        BinaryNode(Token operator, Node left, Node right) {
+            this.operator = operator;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(left == oldChild) left = newChild;
+            if(right == oldChild) right = newChild;
+        }
+
+        // Operands are already evaluated, used when switching specialisation
+        abstract Object apply(Interpreter interpreter, Object left, Object right);
+
+        Object despecialize(Interpreter interpreter, Object leftValue, Object rightValue) {
+            return replace(new GenericBinary(operator, left, right)).apply(interpreter, leftValue, rightValue);
+        }
+    }
+
+    static class UninitializedBinary extends BinaryNode {
+        UninitializedBinary(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object leftValue = left.execute(interpreter);
+            Object rightValue = right.execute(interpreter);
+            return apply(interpreter, leftValue, rightValue);
+        }
+
+        @Override
+        Object apply(Interpreter interpreter, Object leftValue, Object rightValue) {
+            BinaryNode specialized;
+            if(leftValue instanceof Double && rightValue instanceof Double) {
+                specialized = doubles(operator, left, right);
+            } else if(leftValue instanceof String && rightValue instanceof String && operator.type == TokenType.PLUS) {
+                specialized = new ConcatStrings(operator, left, right);
+            } else {
+                specialized = new GenericBinary(operator, left, right);
+            }
+            return replace(specialized).apply(interpreter, leftValue, rightValue);
+        }
+
+        private static BinaryNode doubles(Token operator, Node left, Node right) {
+            switch(operator.type) {
+                case PLUS: return new AddDoubles(operator, left, right);
+                case GREATER: return new GreaterDoubles(operator, left, right);
+                case GREATER_EQUAL: return new GreaterEqualDoubles(operator, left, right);
+                case LESS: return new LessDoubles(operator, left, right);
+                case LESS_EQUAL: return new LessEqualDoubles(operator, left, right);
+                default: return new GenericBinary(operator, left, right);
+            }
+        }
+    }
+
+    // Both operands have been numbers so far
+    abstract static class DoubleBinary extends BinaryNode {
+        DoubleBinary(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        abstract Object compute(double left, double right);
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object leftValue = left.execute(interpreter);
+            Object rightValue = right.execute(interpreter);
+            return apply(interpreter, leftValue, rightValue);
+        }
+
+        @Override
+        Object apply(Interpreter interpreter, Object leftValue, Object rightValue) {
+            if(leftValue instanceof Double && rightValue instanceof Double) {
+                return compute((double)leftValue, (double)rightValue);
+            }
+            return despecialize(interpreter, leftValue, rightValue);
+        }
+    }
+
+    static class AddDoubles extends DoubleBinary {
+        AddDoubles(Token operator, Node left, Node right) { super(operator, left, right); }
+
+        @Override
+        Object compute(double left, double right) { return left + right; }
+    }
+
+    static class GreaterDoubles extends DoubleBinary {
+        GreaterDoubles(Token operator, Node left, Node right) { super(operator, left, right); }
+
+        @Override
+        Object compute(double left, double right) { return left > right; }
+    }
+
+    static class GreaterEqualDoubles extends DoubleBinary {
+        GreaterEqualDoubles(Token operator, Node left, Node right) { super(operator, left, right); }
+
+        @Override
+        Object compute(double left, double right) { return left >= right; }
+    }
+
+    static class LessDoubles extends DoubleBinary {
+        LessDoubles(Token operator, Node left, Node right) { super(operator, left, right); }
+
+        @Override
+        Object compute(double left, double right) { return left < right; }
+    }
+
+    static class LessEqualDoubles extends DoubleBinary {
+        LessEqualDoubles(Token operator, Node left, Node right) { super(operator, left, right); }
+
+        @Override
+        Object compute(double left, double right) { return left <= right; }
+    }
+
+    static class ConcatStrings extends BinaryNode {
+        ConcatStrings(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object leftValue = left.execute(interpreter);
+            Object rightValue = right.execute(interpreter);
+            return apply(interpreter, leftValue, rightValue);
+        }
+
+        @Override
+        Object apply(Interpreter interpreter, Object leftValue, Object rightValue) {
+            if(leftValue instanceof String && rightValue instanceof String) {
+                return (String)leftValue + (String)rightValue;
+            }
+            return despecialize(interpreter, leftValue, rightValue);
+        }
+    }
+
+    // Handles every type combination, the checks the Interpreter used to do
+    static class GenericBinary extends BinaryNode {
+        GenericBinary(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object leftValue = left.execute(interpreter);
+            Object rightValue = right.execute(interpreter);
+            return apply(interpreter, leftValue, rightValue);
+        }
+
+        @Override
+        Object apply(Interpreter interpreter, Object left, Object right) {
+            switch(operator.type) {
+                case GREATER:
+                    interpreter.checkNumberOperands(operator, left, right);
+                    return (double)left > (double)right;
+                case GREATER_EQUAL:
+                    interpreter.checkNumberOperands(operator, left, right);
+                    return (double)left >= (double)right;
+                case LESS:
+                    interpreter.checkNumberOperands(operator, left, right);
+                    return (double)left < (double)right;
+                case LESS_EQUAL:
+                    interpreter.checkNumberOperands(operator, left, right);
+                    return (double)left <= (double)right;
+                case MINUS:
+                    interpreter.checkNumberOperands(operator, left, right);
+                    return (double)left - (double)right;
+                case SLASH:
+                    interpreter.checkNumberOperands(operator, left, right);
+                    return (double)left / (double)right;
+                case STAR:
+                    interpreter.checkNumberOperands(operator, left, right);
+                    return (double)left * (double)right;
+                case PLUS:
+                    return interpreter.add(operator, left, right);
+                default:
+                    throw new RuntimeError(operator, "Unknown operator");
+            }
+        }
+    }
+
+    static class Equal extends BinaryNode {
+        Equal(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return interpreter.isEqual(left.execute(interpreter), right.execute(interpreter));
+        }
+
+        @Override
+        Object apply(Interpreter interpreter, Object left, Object right) {
+            return interpreter.isEqual(left, right);
+        }
+    }
+
+    static class NotEqual extends BinaryNode {
+        NotEqual(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return !interpreter.isEqual(left.execute(interpreter), right.execute(interpreter));
+        }
+
+        @Override
+        Object apply(Interpreter interpreter, Object left, Object right) {
+            return !interpreter.isEqual(left, right);
+        }
+    }
+
+    abstract static class UnaryNode extends Node {
+        final Token operator;
+        Node right;
+
+        UnaryNode(Token operator, Node right) {
+            this.operator = operator;
+            this.right = adopt(right);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(right == oldChild) right = newChild;
+        }
+    }
+
+    static class Not extends UnaryNode {
+        Not(Node right) {
+            super(null, right);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return !interpreter.isTruthy(right.execute(interpreter));
+        }
+    }
+
+    abstract static class LogicalNode extends Node {
+        Node left;
+        Node right;
+
+        LogicalNode(Node left, Node right) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(left == oldChild) left = newChild;
+            if(right == oldChild) right = newChild;
+        }
+    }
+
+    // If left -> true, dont need check right
+    static class Or extends LogicalNode {
+        Or(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object value = left.execute(interpreter);
+            if(interpreter.isTruthy(value)) return value;
+            return right.execute(interpreter);
+        }
+    }
+
+    // Same as above but inversed
+    static class And extends LogicalNode {
+        And(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object value = left.execute(interpreter);
+            if(!interpreter.isTruthy(value)) return value;
+            return right.execute(interpreter);
+        }
+    }
+
+    // Signals an Unbox found something other than a number
+    // The parent turns it into the right RuntimeError once both operands ran
+    static final class NotNumber extends RuntimeException {
+        static final NotNumber INSTANCE = new NotNumber();
+
+        private NotNumber() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Always produces a number, so parents can take it as a primitive double
+    // Only the outermost one boxes, when its value escapes
+    abstract static class NumericNode extends Node {
+        abstract double executeDouble(Interpreter interpreter);
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return executeDouble(interpreter);
+        }
+    }
+
+    static class NumericConstant extends NumericNode {
+        final double value;
+        final Double boxed;
+
+        NumericConstant(Double value) {
+            this.value = value;
+            this.boxed = value;
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter) {
+            return value;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return boxed;
+        }
+    }
+
+    static class Unbox extends NumericNode {
+        Node child;
+
+        Unbox(Node child) {
+            this.child = adopt(child);
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter) {
+            Object value = child.execute(interpreter);
+            if(value instanceof Double) return (double)value;
+            throw NotNumber.INSTANCE;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(child == oldChild) child = newChild;
+        }
+    }
+
+    // Both operands always run before a type error, like the generic path
+    static double leftOperand(Interpreter interpreter, Token operator, NumericNode left, NumericNode right, String message) {
+        try {
+            return left.executeDouble(interpreter);
+        } catch(NotNumber e) {
+            try {
+                right.executeDouble(interpreter);
+            } catch(NotNumber ignored) { }
+            throw new RuntimeError(operator, message);
+        }
+    }
+
+    static double rightOperand(Interpreter interpreter, Token operator, NumericNode right, String message) {
+        try {
+            return right.executeDouble(interpreter);
+        } catch(NotNumber e) {
+            throw new RuntimeError(operator, message);
+        }
+    }
+
+    abstract static class UnboxedArithmetic extends NumericNode {
+        final Token operator;
+        NumericNode left;
+        NumericNode right;
+
+        UnboxedArithmetic(Token operator, NumericNode left, NumericNode right) {
+            this.operator = operator;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        static UnboxedArithmetic create(Token operator, NumericNode left, NumericNode right) {
+            switch(operator.type) {
+                case PLUS: return new AddUnboxed(operator, left, right);
+                case MINUS: return new SubtractUnboxed(operator, left, right);
+                case STAR: return new MultiplyUnboxed(operator, left, right);
+                case SLASH: return new DivideUnboxed(operator, left, right);
+                default: throw new IllegalArgumentException("Not arithmetic: " + operator.lexeme);
+            }
+        }
+
+        abstract double compute(double left, double right);
+
+        String message() {
+            return "Operands must be numbers";
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter) {
+            double l = leftOperand(interpreter, operator, left, right, message());
+            double r = rightOperand(interpreter, operator, right, message());
+            return compute(l, r);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(left == oldChild) left = (NumericNode)newChild;
+            if(right == oldChild) right = (NumericNode)newChild;
+        }
+    }
+
+    static class AddUnboxed extends UnboxedArithmetic {
+        AddUnboxed(Token operator, NumericNode left, NumericNode right) { super(operator, left, right); }
+
+        @Override
+        double compute(double left, double right) { return left + right; }
+
+        @Override
+        String message() { return "Operands must be two numbers or two strings"; }
+    }
+
+    static class SubtractUnboxed extends UnboxedArithmetic {
+        SubtractUnboxed(Token operator, NumericNode left, NumericNode right) { super(operator, left, right); }
+
+        @Override
+        double compute(double left, double right) { return left - right; }
+    }
+
+    static class MultiplyUnboxed extends UnboxedArithmetic {
+        MultiplyUnboxed(Token operator, NumericNode left, NumericNode right) { super(operator, left, right); }
+
+        @Override
+        double compute(double left, double right) { return left * right; }
+    }
+
+    static class DivideUnboxed extends UnboxedArithmetic {
+        DivideUnboxed(Token operator, NumericNode left, NumericNode right) { super(operator, left, right); }
+
+        @Override
+        double compute(double left, double right) { return left / right; }
+    }
+
+    // Result is a Boolean, the operands never get boxed
+    abstract static class UnboxedComparison extends Node {
+        final Token operator;
+        NumericNode left;
+        NumericNode right;
+
+        UnboxedComparison(Token operator, NumericNode left, NumericNode right) {
+            this.operator = operator;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        static UnboxedComparison create(Token operator, NumericNode left, NumericNode right) {
+            switch(operator.type) {
+                case GREATER: return new GreaterUnboxed(operator, left, right);
+                case GREATER_EQUAL: return new GreaterEqualUnboxed(operator, left, right);
+                case LESS: return new LessUnboxed(operator, left, right);
+                case LESS_EQUAL: return new LessEqualUnboxed(operator, left, right);
+                default: throw new IllegalArgumentException("Not a comparison: " + operator.lexeme);
+            }
+        }
+
+        abstract boolean compare(double left, double right);
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            double l = leftOperand(interpreter, operator, left, right, "Operands must be numbers");
+            double r = rightOperand(interpreter, operator, right, "Operands must be numbers");
+            return compare(l, r);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(left == oldChild) left = (NumericNode)newChild;
+            if(right == oldChild) right = (NumericNode)newChild;
+        }
+    }
+
+    static class GreaterUnboxed extends UnboxedComparison {
+        GreaterUnboxed(Token operator, NumericNode left, NumericNode right) { super(operator, left, right); }
+
+        @Override
+        boolean compare(double left, double right) { return left > right; }
+    }
+
+    static class GreaterEqualUnboxed extends UnboxedComparison {
+        GreaterEqualUnboxed(Token operator, NumericNode left, NumericNode right) { super(operator, left, right); }
+
+        @Override
+        boolean compare(double left, double right) { return left >= right; }
+    }
+
+    static class LessUnboxed extends UnboxedComparison {
+        LessUnboxed(Token operator, NumericNode left, NumericNode right) { super(operator, left, right); }
+
+        @Override
+        boolean compare(double left, double right) { return left < right; }
+    }
+
+    static class LessEqualUnboxed extends UnboxedComparison {
+        LessEqualUnboxed(Token operator, NumericNode left, NumericNode right) { super(operator, left, right); }
+
+        @Override
+        boolean compare(double left, double right) { return left <= right; }
+    }
+
+    static class UnboxedNegate extends NumericNode {
+        final Token operator;
+        NumericNode right;
+
+        UnboxedNegate(Token operator, NumericNode right) {
+            this.operator = operator;
+            this.right = adopt(right);
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter) {
+            try {
+                return -right.executeDouble(interpreter);
+            } catch(NotNumber e) {
+                throw new RuntimeError(operator, "Operand must be a number");
+            }
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(right == oldChild) right = (NumericNode)newChild;
+        }
+    }
+}
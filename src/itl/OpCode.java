@@ -0,0 +1,49 @@
+package itl;
+
+// Instruction set of the VM
+// Operands follow the opcode inline, shorts are big endian
+final class OpCode {
+    static final byte CONSTANT = 0;          // u16 constant index
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+
+    static final byte GET_LOCAL = 5;         // u16 depth, u16 slot
+    static final byte SET_LOCAL = 6;         // u16 depth, u16 slot
+    static final byte STORE_LOCAL = 7;       // u16 slot, pops into the innermost frame
+    static final byte GET_GLOBAL = 8;        // u16 constant index of the name token
+    static final byte SET_GLOBAL = 9;        // u16 constant index of the name token
+    static final byte DEFINE_GLOBAL = 10;    // u16 constant index of the name token
+
+    static final byte EQUAL = 11;
+    static final byte NOT_EQUAL = 12;
+    static final byte GREATER = 13;
+    static final byte GREATER_EQUAL = 14;
+    static final byte LESS = 15;
+    static final byte LESS_EQUAL = 16;
+    static final byte ADD = 17;
+    static final byte SUBTRACT = 18;
+    static final byte MULTIPLY = 19;
+    static final byte DIVIDE = 20;
+    static final byte NOT = 21;
+    static final byte NEGATE = 22;
+
+    static final byte PRINT = 23;
+
+    static final byte JUMP = 24;             // s16 offset from the next instruction
+    static final byte JUMP_IF_FALSE = 25;    // s16 offset, leaves the condition on the stack
+    static final byte JUMP_IF_TRUE = 26;     // s16 offset, leaves the condition on the stack
+    static final byte POP_JUMP_IF_FALSE = 27; // s16 offset, pops the condition
+
+    static final byte CALL = 28;             // u8 argument count
+    static final byte CLOSURE = 29;          // u16 constant index of the function's chunk
+    static final byte RETURN = 30;
+
+    static final byte PUSH_FRAME = 31;       // u16 frame size
+    static final byte POP_FRAME = 32;
+
+    static final byte TAIL_CALL = 33;        // u8 argument count, replaces the current call
+
+    private OpCode() { }
+}
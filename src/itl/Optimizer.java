@@ -0,0 +1,230 @@
+package itl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Simplifies the resolved tree before it runs
+// Operators over literals are folded, branches on constant conditions are dropped
+// and blocks that declare nothing are merged into the code around them
+// Anything that would fail at runtime, like -"a" or 1 < "b", is left alone so the error still happens
+// Nodes that don't change are reused, the Resolver has to run over the result again to fix slots and depths
+public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for(Stmt statement : statements) {
+            Stmt result = optimize(statement);
+            if(result == null) continue;
+
+            // Its statements are in the same scope either way
+            if(result instanceof Stmt.Block && ((Stmt.Block)result).frameSize == 0) {
+                optimized.addAll(((Stmt.Block)result).statements);
+            } else {
+                optimized.add(result);
+            }
+        }
+        return optimized;
+    }
+
+    // null when the statement does nothing
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    // Where a statement is required, nothing becomes an empty block
+    private Stmt branch(Stmt stmt) {
+        Stmt result = optimize(stmt);
+        if(result == null) return new Stmt.Block(new ArrayList<>());
+        return result;
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimize(stmt.statements);
+
+        // Blocks with locals keep their own frame
+        if(stmt.frameSize > 0) {
+            Stmt.Block block = new Stmt.Block(statements);
+            block.frameSize = stmt.frameSize;
+            return block;
+        }
+
+        if(statements.isEmpty()) return null;
+        if(statements.size() == 1) return statements.get(0);
+        return new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+
+        // Evaluating a literal has no effect
+        if(expression instanceof Expr.Literal) return null;
+        if(expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return new Stmt.Function(stmt.name, stmt.params, optimize(stmt.body), stmt.memo);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        if(condition instanceof Expr.Literal) {
+            if(JitRuntime.isTruthy(((Expr.Literal)condition).value)) return optimize(stmt.thenBranch);
+            if(stmt.elseBranch == null) return null;
+            return optimize(stmt.elseBranch);
+        }
+
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        return new Stmt.If(condition, branch(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if(expression == stmt.expression) return stmt;
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = stmt.value == null ? null : optimize(stmt.value);
+        if(value == stmt.value) return stmt;
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+        if(initializer == stmt.initializer) return stmt;
+        return new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if(condition instanceof Expr.Literal && !JitRuntime.isTruthy(((Expr.Literal)condition).value)) {
+            return null;
+        }
+        return new Stmt.While(condition, branch(stmt.body));
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if(value == expr.value) return expr;
+        return new Expr.Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if(left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            Object value = fold(expr.operator, ((Expr.Literal)left).value, ((Expr.Literal)right).value);
+            if(value != null) return new Expr.Literal(value);
+        }
+
+        if(left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    // null when the operation has to be left for runtime
+    private Object fold(Token operator, Object left, Object right) {
+        switch(operator.type) {
+            case EQUAL_EQUAL: return JitRuntime.equal(left, right);
+            case BANG_EQUAL: return JitRuntime.notEqual(left, right);
+            case PLUS:
+                if(left instanceof String && right instanceof String) return (String)left + (String)right;
+                break;
+            default:
+                break;
+        }
+
+        if(!(left instanceof Double) || !(right instanceof Double)) return null;
+        double a = (double)left;
+        double b = (double)right;
+
+        switch(operator.type) {
+            case PLUS: return a + b;
+            case MINUS: return a - b;
+            case STAR: return a * b;
+            case SLASH: return a / b;
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case LESS: return a < b;
+            case LESS_EQUAL: return a <= b;
+            default: return null;
+        }
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        boolean changed = false;
+        List<Expr> arguements = new ArrayList<>(expr.arguements.size());
+        for(Expr arguement : expr.arguements) {
+            Expr optimized = optimize(arguement);
+            changed |= optimized != arguement;
+            arguements.add(optimized);
+        }
+
+        Expr callee = optimize(expr.callee);
+        if(!changed && callee == expr.callee) return expr;
+        return new Expr.Call(callee, expr.paren, arguements);
+    }
+
+    // Parentheses only matter to the Parser
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // A constant left side decides which operand is the result
+        if(left instanceof Expr.Literal) {
+            boolean truthy = JitRuntime.isTruthy(((Expr.Literal)left).value);
+            if(expr.operator.type == TokenType.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        if(left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if(right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal)right).value;
+            if(expr.operator.type == TokenType.BANG) return new Expr.Literal(!JitRuntime.isTruthy(value));
+            if(value instanceof Double) return new Expr.Literal(-(double)value);
+        }
+
+        if(right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+}
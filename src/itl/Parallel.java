@@ -0,0 +1,113 @@
+package itl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// parallelFor and parallelReduce, which split a range of indexes across the ForkJoinPool
+// They only run functions the Resolver found assign to nothing outside themselves, even through
+// the functions they call, so calls running at once can't race on a variable, see Stmt.Function.independent
+// Each piece of the range gets its own Interpreter sharing the globals, same as a Task
+final class Parallel {
+
+    private static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+    // Pieces per worker, more than one so a slow piece doesn't leave the rest of the pool idle
+    private static final int PIECES = 4;
+
+    private Parallel() { }
+
+    // parallelFor(lo, hi, fn) calls fn(i) for every whole i from lo up to hi
+    static Object forEach(Interpreter interpreter, List<Object> arguements) {
+        long lo = bound(arguements.get(0));
+        long hi = bound(arguements.get(1));
+        ItlCallable body = independent(arguements.get(2), 1, "parallelFor");
+        if(lo >= hi) return null;
+
+        POOL.invoke(new Range(interpreter, body, null, lo, hi, grain(hi - lo)));
+        return null;
+    }
+
+    // parallelReduce(lo, hi, fn, combine) combines every fn(i) with combine(a, b), nil for an empty range
+    // Results are combined in index order, but not one after another, so combine has to be associative
+    static Object reduce(Interpreter interpreter, List<Object> arguements) {
+        long lo = bound(arguements.get(0));
+        long hi = bound(arguements.get(1));
+        ItlCallable map = independent(arguements.get(2), 1, "parallelReduce");
+        ItlCallable combine = independent(arguements.get(3), 2, "parallelReduce");
+        if(lo >= hi) return null;
+
+        return POOL.invoke(new Range(interpreter, map, combine, lo, hi, grain(hi - lo)));
+    }
+
+    private static long grain(long count) {
+        return Math.max(1, count / ((long)POOL.getParallelism() * PIECES));
+    }
+
+    private static long bound(Object value) {
+        if(!(value instanceof Double) || (double)value != Math.floor((double)value) || Double.isInfinite((double)value)) {
+            throw new RuntimeError(null, "Range bounds must be whole numbers");
+        }
+        return (long)(double)value;
+    }
+
+    private static ItlCallable independent(Object callee, int arity, String name) {
+        if(!(callee instanceof ItlCallable) || ((ItlCallable)callee).arity() != arity) {
+            throw new RuntimeError(null, name + " takes a function with " + arity + (arity == 1 ? " parameter" : " parameters"));
+        }
+
+        ItlCallable function = (ItlCallable)callee;
+        // Natives are left out, some of them send things
+        boolean independent = function instanceof ItlFunction && ((ItlFunction)function).independent()
+            || function instanceof CompiledFunction && ((CompiledFunction)function).independent()
+            || function instanceof VmFunction && ((VmFunction)function).independent();
+        if(!independent) {
+            throw new RuntimeError(null, name + " can't run " + function + ", it or something it calls might assign to variables outside it");
+        }
+        return function;
+    }
+
+    // Splits in halves until a piece is at most grain indexes long
+    private static final class Range extends RecursiveTask<Object> {
+        private final Interpreter parent;
+        private final ItlCallable function;
+        // null for parallelFor, which has no results to keep
+        private final ItlCallable combine;
+        private final long lo;
+        private final long hi;
+        private final long grain;
+
+        Range(Interpreter parent, ItlCallable function, ItlCallable combine, long lo, long hi, long grain) {
+            this.parent = parent;
+            this.function = function;
+            this.combine = combine;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Object compute() {
+            if(hi - lo <= grain) return run();
+
+            long mid = lo + (hi - lo) / 2;
+            Range left = new Range(parent, function, combine, lo, mid, grain);
+            Range right = new Range(parent, function, combine, mid, hi, grain);
+            left.fork();
+            Object rightResult = right.compute();
+            Object leftResult = left.join();
+            if(combine == null) return null;
+            return combine.call(new Interpreter(parent), Arrays.asList(leftResult, rightResult));
+        }
+
+        private Object run() {
+            Interpreter interpreter = new Interpreter(parent);
+            Object result = function.call(interpreter, Arrays.asList((double)lo));
+            for(long i = lo + 1; i < hi; i++) {
+                Object value = function.call(interpreter, Arrays.asList((double)i));
+                if(combine != null) result = combine.call(interpreter, Arrays.asList(result, value));
+            }
+            return result;
+        }
+    }
+}
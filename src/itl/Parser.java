@@ -11,12 +11,19 @@ public class Parser {
     public static class ParseError extends RuntimeException { }
 
 
-    public final List<Token> tokens;
-    public int current = 0;
+    private final TokenStream tokens;
+    private final ErrorSink errors;
 
     // Take in tokens
     Parser(List<Token> tokens) {
-        this.tokens = tokens;
+        this.tokens = new TokenStream(tokens);
+        this.errors = Main.errors;
+    }
+
+    // Pulls tokens from the scanner while parsing, errors go where the scanner's go
+    Parser(Scanner scanner) {
+        this.tokens = new TokenStream(scanner);
+        this.errors = scanner.errors;
     }
 
     List<Stmt> parse() {
@@ -33,7 +40,11 @@ public class Parser {
 
     public Stmt declaration() {
         try {
-            if(match(FUNCTION)) return function("function");
+            if(match(FUNCTION)) return function("function", false);
+            if(match(MEMO)) {
+                consume(FUNCTION, "Expect 'function' after 'memo'.");
+                return function("function", true);
+            }
             if(match(VAR)) return varDeclaration();
 
             return statement();
@@ -108,7 +119,7 @@ public class Parser {
         return new Stmt.Expression(expr);
     }
 
-    private Stmt.Function function(String kind) {
+    private Stmt.Function function(String kind, boolean memo) {
         Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
 
         consume(LEFT_PAREN, "Expected a '(' after " + kind + " name.");
@@ -128,7 +139,7 @@ public class Parser {
 
         consume(LEFT_BRACE, "Expected a '{' before " + kind + " name.");
         List<Stmt> body = block();
-        return new Stmt.Function(name, parameters, body);
+        return new Stmt.Function(name, parameters, body, memo);
 
     }
 
@@ -333,7 +344,7 @@ public class Parser {
         if(match(NIL)) return new Expr.Literal(null);
 
         if(match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(tokens.previousLiteral());
         }
 
         if(match(IDENTIFIER)) {
@@ -354,7 +365,7 @@ public class Parser {
     public boolean match(TokenType... types) {
         for(TokenType type : types) {
             if(check(type)) {
-                advance();
+                tokens.skip();
                 return true;
             }
         }
@@ -370,43 +381,44 @@ public class Parser {
     // return true if current is type : Doesnt consume
     public boolean check(TokenType type) {
         if(isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.peekType() == type;
     }
 
     public Token advance() {
-        if(!isAtEnd()) current++;
+        if(!isAtEnd()) tokens.advance();
         return previous();
     }
 
     // If no more tokens
     public boolean isAtEnd() {
-        return peek().type == EOF;
+        return tokens.peekType() == EOF;
     }
 
     // next to be consumed
     public Token peek() {
-        return tokens.get(current);
+        return tokens.peek();
     }
 
     // Most recently consumed
     public Token previous() {
-        return tokens.get(current - 1);
+        return tokens.previous();
     }
 
     public ParseError error(Token token, String message) {
-        Main.error(token, message);
+        errors.error(token, message);
         return new ParseError();
     }
 
     public void synchronize() {
-        advance();
+        if(!isAtEnd()) tokens.skip();
 
         while(!isAtEnd()) {
-            if(previous().type == SEMICOLON) return;
+            if(tokens.previousType() == SEMICOLON) return;
 
-            switch(peek().type) {
+            switch(tokens.peekType()) {
                 case CLASS:
                 case FUNCTION:
+                case MEMO:
                 case VAR:
                 case FOR:
                 case IF:
@@ -418,7 +430,7 @@ public class Parser {
                     break;
             }
 
-            advance();
+            tokens.skip();
         }
     }
 
@@ -0,0 +1,216 @@
+package itl;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+// Where print statements go, one line at a time
+// Stdout gets a buffered sink, or an async one with -Ditl.print=async, flushed as -Ditl.print.flush says:
+//   auto  every line when stdout is a terminal, otherwise only when the buffer fills (the default)
+//   line  every line
+//   full  only when the buffer fills
+//   N     when a line is printed N milliseconds or more after the last flush
+// Whatever the policy, Main flushes at the end of a run and before a runtime error is reported
+abstract class PrintSink {
+
+    private static final int BUFFER = 1 << 16;
+    // Lines the async ring buffer holds before print waits for the writer thread
+    private static final int RING = Integer.getInteger("itl.print.ring", 8192);
+    private static final String NEWLINE = System.lineSeparator();
+
+    private static PrintSink standard;
+
+    abstract void println(String line);
+
+    // Same text as stringify gives
+    void println(double number) {
+        println(DoubleFormat.toString(number));
+    }
+
+    abstract void flush();
+
+    // Shared by every interpreter writing to stdout
+    static synchronized PrintSink standard() {
+        if(standard == null) {
+            Writer out = new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), Charset.defaultCharset());
+            long interval = interval(System.getProperty("itl.print.flush", "auto"));
+            standard = "async".equals(System.getProperty("itl.print")) ? new Async(out, RING) : buffered(out, interval);
+            PrintSink sink = standard;
+            Runtime.getRuntime().addShutdownHook(new Thread(sink::flush));
+        }
+        return standard;
+    }
+
+    // Nanoseconds between flushes, 0 for every line
+    private static long interval(String policy) {
+        switch(policy) {
+            case "line": return 0;
+            case "full": return Long.MAX_VALUE;
+            case "auto": return System.console() != null ? 0 : Long.MAX_VALUE;
+            default:
+                try {
+                    return TimeUnit.MILLISECONDS.toNanos(Long.parseLong(policy));
+                } catch(NumberFormatException e) {
+                    throw new IllegalArgumentException("itl.print.flush must be auto, line, full or a number of milliseconds, not " + policy);
+                }
+        }
+    }
+
+    // Flushes every interval nanoseconds, 0 for every line and Long.MAX_VALUE for only when full
+    static PrintSink buffered(Writer out, long interval) {
+        return new Buffered(out, interval);
+    }
+
+    // For embedders, the writer's own flushing applies
+    static PrintSink to(PrintWriter out) {
+        return new PrintSink() {
+            @Override
+            void println(String line) {
+                out.println(line);
+            }
+
+            @Override
+            void flush() {
+                out.flush();
+            }
+        };
+    }
+
+    // Errors writing are dropped, the same as PrintStream does with them
+    private static final class Buffered extends PrintSink {
+        private final BufferedWriter out;
+        private final long interval;
+        private long lastFlush = System.nanoTime();
+        // Numbers are formatted in here and written from it, no String in between
+        private final char[] number = new char[DoubleFormat.MAX_LENGTH];
+
+        Buffered(Writer out, long interval) {
+            this.out = new BufferedWriter(out, BUFFER);
+            this.interval = interval;
+        }
+
+        @Override
+        synchronized void println(String line) {
+            try {
+                out.write(line);
+                out.write(NEWLINE);
+                lineEnded();
+            } catch(IOException e) { }
+        }
+
+        @Override
+        synchronized void println(double value) {
+            try {
+                out.write(number, 0, DoubleFormat.write(value, number, 0));
+                out.write(NEWLINE);
+                lineEnded();
+            } catch(IOException e) { }
+        }
+
+        // Flushes if the policy says it's time
+        private void lineEnded() throws IOException {
+            if(interval == 0) {
+                out.flush();
+            } else if(interval != Long.MAX_VALUE && System.nanoTime() - lastFlush >= interval) {
+                out.flush();
+                lastFlush = System.nanoTime();
+            }
+        }
+
+        @Override
+        synchronized void flush() {
+            try {
+                out.flush();
+            } catch(IOException e) { }
+            lastFlush = System.nanoTime();
+        }
+    }
+
+    // print only puts the line in a ring buffer, a writer thread takes everything in it at once
+    // and writes it, so a slow consumer only holds up a script once the ring is full
+    private static final class Async extends PrintSink {
+        private final BufferedWriter out;
+        private final String[] ring;
+        private int head = 0;
+        private int count = 0;
+        // Lines put in the ring so far, and lines written and flushed
+        private long printed = 0;
+        private long written = 0;
+
+        Async(Writer out, int capacity) {
+            this.out = new BufferedWriter(out, BUFFER);
+            this.ring = new String[capacity];
+            Thread writer = new Thread(this::write, "itl-print");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        @Override
+        synchronized void println(String line) {
+            try {
+                while(count == ring.length) wait();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            ring[(head + count) % ring.length] = line;
+            count++;
+            printed++;
+            notifyAll();
+        }
+
+        // Waits until everything printed so far has been written
+        @Override
+        synchronized void flush() {
+            long target = printed;
+            try {
+                while(written < target) wait();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void write() {
+            String[] lines = new String[ring.length];
+            for(;;) {
+                int taken;
+                synchronized(this) {
+                    try {
+                        while(count == 0) wait();
+                    } catch(InterruptedException e) {
+                        return;
+                    }
+                    taken = count;
+                    for(int i = 0; i < taken; i++) {
+                        lines[i] = ring[(head + i) % ring.length];
+                        ring[(head + i) % ring.length] = null;
+                    }
+                    head = (head + taken) % ring.length;
+                    count = 0;
+                    notifyAll();
+                }
+
+                // Everything printed while the last batch was written goes out in one flush
+                try {
+                    for(int i = 0; i < taken; i++) {
+                        out.write(lines[i]);
+                        out.write(NEWLINE);
+                        lines[i] = null;
+                    }
+                    out.flush();
+                } catch(IOException e) { }
+
+                synchronized(this) {
+                    written += taken;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,571 @@
+package itl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A resolved and optimized program saved as bytes, written by itl compile and by the AstCache
+//
+//   magic, version, constant count, tree offset
+//   constants: names, string literals and numbers, each stored once
+//   tree: statements as tags followed by their children and the Resolver's annotations,
+//         numbers in the tree take one to five bytes
+//
+// Everything refers to constants by index, nothing by file position, so an image can be copied anywhere
+// Images are mapped rather than read, only the constants the tree uses are decoded
+final class ProgramImage {
+
+    // Bump whenever the format, the Parser, the Resolver or the Optimizer change what's written
+    static final int VERSION = 3;
+    private static final int MAGIC = 0x49544c43; // "ITLC"
+    private static final int HEADER = 16;
+
+    private ProgramImage() { }
+
+    static void write(List<Stmt> statements, Path file) throws IOException {
+        try(OutputStream output = new BufferedOutputStream(Files.newOutputStream(file))) {
+            encode(statements, output);
+        }
+    }
+
+    private static void encode(List<Stmt> statements, OutputStream stream) throws IOException {
+        Writer writer = new Writer();
+        try {
+            writer.statements(statements);
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        DataOutputStream output = new DataOutputStream(stream);
+        ByteArrayOutputStream constants = writer.constants();
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(writer.pool.size());
+        output.writeInt(HEADER + constants.size());
+        constants.writeTo(output);
+        writer.tree.writeTo(output);
+        output.flush();
+    }
+
+    // Throws IOException when the file isn't an image of this version
+    static List<Stmt> read(Path file) throws IOException {
+        ByteBuffer image;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Stays mapped after the channel closes
+            image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            return decode(image);
+        } catch(IOException e) {
+            throw new IOException(file + " " + e.getMessage(), e);
+        }
+    }
+
+    // Builds a new tree every time, so each run gets its own copy of the nodes' runtime state
+    static List<Stmt> decode(ByteBuffer image) throws IOException {
+        try {
+            if(image.getInt() != MAGIC) throw new IOException("isn't a compiled program");
+            if(image.getInt() != VERSION) throw new IOException("was compiled by another version");
+            List<Stmt> statements = new Reader(image).statements();
+            // Anything left over means the tree wasn't what was written
+            if(image.hasRemaining()) throw new IOException("is damaged");
+            return statements;
+        } catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | ClassCastException | NegativeArraySizeException e) {
+            throw new IOException("is damaged", e);
+        }
+    }
+
+    // Node tags
+    private static final byte BLOCK = 0, EXPRESSION = 1, FUNCTION = 2, IF = 3, PRINT = 4, RETURN = 5, VAR = 6, WHILE = 7;
+    private static final byte ASSIGN = 8, BINARY = 9, CALL = 10, GROUPING = 11, LITERAL = 12, LOGICAL = 13, UNARY = 14, VARIABLE = 15;
+    private static final byte NONE = 16;
+
+    // Literal tags
+    private static final byte NIL = 0, FALSE = 1, TRUE = 2, CONSTANT = 3;
+
+    // Constant tags
+    private static final byte STRING = 0, NUMBER = 1;
+
+    private static final class Writer implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+        final ByteArrayOutputStream tree = new ByteArrayOutputStream();
+        private final DataOutputStream output = new DataOutputStream(tree);
+        // Index of every constant written so far
+        final Map<Object, Integer> pool = new HashMap<>();
+        private final List<Object> constants = new ArrayList<>();
+
+        void statements(List<Stmt> statements) {
+            block(statements);
+        }
+
+        ByteArrayOutputStream constants() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            for(Object constant : constants) {
+                if(constant instanceof String) {
+                    byte[] utf8 = ((String)constant).getBytes(StandardCharsets.UTF_8);
+                    output.writeByte(STRING);
+                    output.writeInt(utf8.length);
+                    output.write(utf8);
+                } else {
+                    output.writeByte(NUMBER);
+                    output.writeDouble((Double)constant);
+                }
+            }
+            return bytes;
+        }
+
+        private void statement(Stmt stmt) {
+            if(stmt == null) {
+                tag(NONE);
+                return;
+            }
+            stmt.accept(this);
+        }
+
+        private void expression(Expr expr) {
+            if(expr == null) {
+                tag(NONE);
+                return;
+            }
+            expr.accept(this);
+        }
+
+        private void tag(byte tag) {
+            try {
+                output.writeByte(tag);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Seven bits a byte, zigzagged so -1 (globals) takes one byte too
+        private void integer(int value) {
+            int bits = (value << 1) ^ (value >> 31);
+            try {
+                while((bits & ~0x7f) != 0) {
+                    output.writeByte((bits & 0x7f) | 0x80);
+                    bits >>>= 7;
+                }
+                output.writeByte(bits);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void bool(boolean value) {
+            tag(value ? (byte)1 : (byte)0);
+        }
+
+        // Strings and Doubles, -0.0 and NaN are kept apart from 0.0 by Double.equals
+        private void constant(Object value) {
+            Integer index = pool.get(value);
+            if(index == null) {
+                index = constants.size();
+                pool.put(value, index);
+                constants.add(value);
+            }
+            integer(index);
+        }
+
+        private void token(Token token) {
+            tag((byte)token.type.ordinal());
+            constant(token.lexeme);
+            integer(token.line);
+        }
+
+        private void tokens(List<Token> tokens) {
+            integer(tokens.size());
+            for(Token token : tokens) {
+                token(token);
+            }
+        }
+
+        private void block(List<Stmt> statements) {
+            integer(statements.size());
+            for(Stmt statement : statements) {
+                statement(statement);
+            }
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            tag(BLOCK);
+            integer(stmt.frameSize);
+            block(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            tag(EXPRESSION);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            tag(FUNCTION);
+            token(stmt.name);
+            tokens(stmt.params);
+            bool(stmt.memo);
+            integer(stmt.slot);
+            integer(stmt.frameSize);
+            bool(stmt.hasClosures);
+            bool(stmt.independent);
+            block(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            tag(IF);
+            expression(stmt.condition);
+            statement(stmt.thenBranch);
+            statement(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            tag(PRINT);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            tag(RETURN);
+            token(stmt.keyword);
+            expression(stmt.value);
+            bool(stmt.tailCall);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            tag(VAR);
+            token(stmt.name);
+            expression(stmt.initializer);
+            integer(stmt.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            tag(WHILE);
+            expression(stmt.condition);
+            statement(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            tag(ASSIGN);
+            token(expr.name);
+            expression(expr.value);
+            integer(expr.depth);
+            integer(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            tag(BINARY);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            bool(expr.numeric);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            tag(CALL);
+            expression(expr.callee);
+            token(expr.paren);
+            integer(expr.arguements.size());
+            for(Expr arguement : expr.arguements) {
+                expression(arguement);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            tag(GROUPING);
+            expression(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            tag(LITERAL);
+            Object value = expr.value;
+            if(value == null) {
+                tag(NIL);
+            } else if(value instanceof Boolean) {
+                tag((Boolean)value ? TRUE : FALSE);
+            } else {
+                tag(CONSTANT);
+                constant(value);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            tag(LOGICAL);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            tag(UNARY);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            tag(VARIABLE);
+            token(expr.name);
+            integer(expr.depth);
+            integer(expr.slot);
+            return null;
+        }
+    }
+
+    private static final class Reader {
+        private static final TokenType[] TYPES = TokenType.values();
+
+        private final ByteBuffer image;
+        // Where each constant starts, decoded the first time it's used
+        private final int[] offsets;
+        private final Object[] constants;
+        // Symbol id + 1 of each name constant, 0 until it's interned
+        private final int[] symbols;
+
+        Reader(ByteBuffer image) throws IOException {
+            this.image = image;
+            int count = image.getInt();
+            int tree = image.getInt();
+            if(count < 0 || tree < HEADER || tree > image.limit()) throw new IOException("Bad image header");
+
+            offsets = new int[count];
+            constants = new Object[count];
+            symbols = new int[count];
+            for(int i = 0; i < count; i++) {
+                offsets[i] = image.position();
+                byte tag = image.get();
+                if(tag == STRING) {
+                    int length = image.getInt();
+                    image.position(image.position() + length);
+                } else if(tag == NUMBER) {
+                    image.position(image.position() + Double.BYTES);
+                } else {
+                    throw new IOException("Bad constant tag " + tag);
+                }
+            }
+            image.position(tree);
+        }
+
+        List<Stmt> statements() throws IOException {
+            return block();
+        }
+
+        private Object constant(int index) throws IOException {
+            Object value = constants[index];
+            if(value != null) return value;
+
+            int offset = offsets[index];
+            if(image.get(offset) == STRING) {
+                byte[] utf8 = new byte[image.getInt(offset + 1)];
+                image.get(offset + 1 + Integer.BYTES, utf8);
+                value = new String(utf8, StandardCharsets.UTF_8);
+            } else {
+                value = image.getDouble(offset + 1);
+            }
+            constants[index] = value;
+            return value;
+        }
+
+        private List<Stmt> block() throws IOException {
+            int size = integer();
+            if(size < 0) throw new IOException("Bad block size " + size);
+            List<Stmt> statements = new ArrayList<>(Math.min(size, image.remaining()));
+            for(int i = 0; i < size; i++) {
+                statements.add(statement());
+            }
+            return statements;
+        }
+
+        private Token token() throws IOException {
+            TokenType type = TYPES[image.get() & 0xff];
+            int index = integer();
+            String lexeme = (String)constant(index);
+            int line = integer();
+
+            // Symbol ids differ from run to run, names get theirs when the image is loaded
+            int symbol = -1;
+            if(type == TokenType.IDENTIFIER) {
+                if(symbols[index] == 0) symbols[index] = Symbols.GLOBAL.intern(lexeme) + 1;
+                symbol = symbols[index] - 1;
+            }
+            return new Token(type, lexeme, null, line, symbol);
+        }
+
+        private List<Token> tokens() throws IOException {
+            int size = integer();
+            if(size < 0) throw new IOException("Bad parameter count " + size);
+            List<Token> tokens = new ArrayList<>(Math.min(size, image.remaining()));
+            for(int i = 0; i < size; i++) {
+                tokens.add(token());
+            }
+            return tokens;
+        }
+
+        private int integer() throws IOException {
+            int bits = 0;
+            for(int shift = 0; shift < 35; shift += 7) {
+                byte b = image.get();
+                bits |= (b & 0x7f) << shift;
+                if(b >= 0) return (bits >>> 1) ^ -(bits & 1);
+            }
+            throw new IOException("Bad integer");
+        }
+
+        private boolean bool() {
+            return image.get() != 0;
+        }
+
+        private Stmt statement() throws IOException {
+            byte tag = image.get();
+            switch(tag) {
+                case NONE: return null;
+                case BLOCK: {
+                    int frameSize = integer();
+                    Stmt.Block block = new Stmt.Block(block());
+                    block.frameSize = frameSize;
+                    return block;
+                }
+                case EXPRESSION: return new Stmt.Expression(expression());
+                case FUNCTION: {
+                    Token name = token();
+                    List<Token> params = tokens();
+                    boolean memo = bool();
+                    int slot = integer();
+                    int frameSize = integer();
+                    boolean hasClosures = bool();
+                    boolean independent = bool();
+                    Stmt.Function function = new Stmt.Function(name, params, block(), memo);
+                    function.slot = slot;
+                    function.frameSize = frameSize;
+                    function.hasClosures = hasClosures;
+                    function.independent = independent;
+                    return function;
+                }
+                case IF: {
+                    Expr condition = expression();
+                    Stmt thenBranch = statement();
+                    return new Stmt.If(condition, thenBranch, statement());
+                }
+                case PRINT: return new Stmt.Print(expression());
+                case RETURN: {
+                    Stmt.Return stmt = new Stmt.Return(token(), expression());
+                    stmt.tailCall = bool();
+                    return stmt;
+                }
+                case VAR: {
+                    Stmt.Var stmt = new Stmt.Var(token(), expression());
+                    stmt.slot = integer();
+                    return stmt;
+                }
+                case WHILE: {
+                    Expr condition = expression();
+                    return new Stmt.While(condition, statement());
+                }
+                default: throw new IOException("Bad statement tag " + tag);
+            }
+        }
+
+        private Expr expression() throws IOException {
+            byte tag = image.get();
+            switch(tag) {
+                case NONE: return null;
+                case ASSIGN: {
+                    Expr.Assign expr = new Expr.Assign(token(), expression());
+                    expr.depth = integer();
+                    expr.slot = integer();
+                    return expr;
+                }
+                case BINARY: {
+                    Expr left = expression();
+                    Token operator = token();
+                    Expr.Binary expr = new Expr.Binary(left, operator, expression());
+                    expr.numeric = bool();
+                    return expr;
+                }
+                case CALL: {
+                    Expr callee = expression();
+                    Token paren = token();
+                    int size = integer();
+                    if(size < 0) throw new IOException("Bad arguement count " + size);
+                    List<Expr> arguements = new ArrayList<>(Math.min(size, image.remaining()));
+                    for(int i = 0; i < size; i++) {
+                        arguements.add(expression());
+                    }
+                    return new Expr.Call(callee, paren, arguements);
+                }
+                case GROUPING: return new Expr.Grouping(expression());
+                case LITERAL: return new Expr.Literal(literal());
+                case LOGICAL: {
+                    Expr left = expression();
+                    Token operator = token();
+                    return new Expr.Logical(left, operator, expression());
+                }
+                case UNARY: {
+                    Token operator = token();
+                    return new Expr.Unary(operator, expression());
+                }
+                case VARIABLE: {
+                    Expr.Variable expr = new Expr.Variable(token());
+                    expr.depth = integer();
+                    expr.slot = integer();
+                    return expr;
+                }
+                default: throw new IOException("Bad expression tag " + tag);
+            }
+        }
+
+        private Object literal() throws IOException {
+            byte tag = image.get();
+            switch(tag) {
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case CONSTANT: return constant(integer());
+                default: throw new IOException("Bad literal tag " + tag);
+            }
+        }
+    }
+}
@@ -1,18 +1,56 @@
 package itl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    // Innermost local for each symbol id, null when the name is global
+    // A local shadows the one before it, which comes back when its scope ends
+    // Grown as names are declared, only as long as the largest id this program declares
+    private Local[] locals = new Local[64];
+    // Every local in an open scope, in declaration order
+    private final List<Local> declared = new ArrayList<>();
+    // Where each open scope's locals start in declared
+    private int[] scopeStarts = new int[16];
+    private int scopeCount = 0;
     private FunctionType currentFunction = FunctionType.NONE;
+    private Stmt.Function currentDeclaration = null;
+    // Scope holding the params of the outermost memo function being resolved, -1 outside one
+    private int memoScope = -1;
+    // Functions being resolved, innermost last
+    private final List<Body> open = new ArrayList<>();
+    // Every function in the program, settled once all calls are seen, see settle
+    private final List<Body> bodies = new ArrayList<>();
+    // Globals the program declares, assigns or calls, by symbol id
+    private final Map<Integer, Local> globals = new HashMap<>();
+    // Variables memo functions read from outside themselves, see checkMemoReads
+    private final List<Use> memoReads = new ArrayList<>();
+
+    // Natives whose result or effect changes from call to call
+    private static final int[] IMPURE_NATIVES = {
+        Interpreter.CLOCK, Interpreter.SEND_TO_TREE,
+        Interpreter.SPAWN, Interpreter.AWAIT, Interpreter.CHANNEL, Interpreter.SEND, Interpreter.RECEIVE,
+        Interpreter.NANO_CLOCK, Interpreter.SLEEP, Interpreter.ANIMATE
+    };
+    // Natives that touch no variables and send nothing anywhere
+    private static final int[] INDEPENDENT_NATIVES = {
+        Interpreter.CLOCK, Interpreter.NANO_CLOCK
+    };
+    // Body.assigns when nothing is assigned
+    private static final int NOWHERE = Integer.MAX_VALUE;
+
+    private final ErrorSink errors;
+
+    Resolver() {
+        this(Main.errors);
+    }
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver(ErrorSink errors) {
+        this.errors = errors;
     }
 
     private enum FunctionType {
@@ -20,8 +58,69 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         FUNCTION
     }
 
+    // A local gets the next free slot in its scope's frame
+    // Globals get one too, with slot and scope -1
+    private static class Local {
+        final int symbol;
+        final int slot;
+        // Index of the scope it's declared in
+        final int scope;
+        final Local shadowed;
+        boolean defined = false;
+        boolean param = false;
+        // The function declared with the name, null for vars and params
+        Body function;
+        // Assigned, or declared twice, so calling it might not call function
+        // Global vars count too, they could hold any function
+        boolean reassigned = false;
+        // Assigned, or declared twice, so reading it might not give the value it was declared with
+        boolean assigned = false;
+
+        Local(int symbol, int slot, int scope, Local shadowed) {
+            this.symbol = symbol;
+            this.slot = slot;
+            this.scope = scope;
+            this.shadowed = shadowed;
+        }
+    }
+
+    // What a function assigns and calls, for Stmt.Function.independent and memo functions
+    private static class Body {
+        final Stmt.Function function;
+        // Scope holding its params
+        final int scope;
+        // memoScope while it was resolved, -1 outside a memo function
+        final int memoScope;
+        // Outermost scope it or anything it calls assigns to, -1 for globals
+        int assigns = NOWHERE;
+        // Calls an impure native, itself or through anything it calls
+        boolean impure = false;
+        final List<Use> calls = new ArrayList<>();
+
+        Body(Stmt.Function function, int scope, int memoScope) {
+            this.function = function;
+            this.scope = scope;
+            this.memoScope = memoScope;
+        }
+    }
+
+    // A name used in a function, kept for settle
+    private static class Use {
+        final Local local;
+        final Token name;
+
+        Use(Local local, Token name) {
+            this.local = local;
+            this.name = name;
+        }
+    }
 
     void resolve(List<Stmt> statements) {
+        resolveAll(statements);
+        settle();
+    }
+
+    private void resolveAll(List<Stmt> statements) {
         for(Stmt statement : statements) {
             resolve(statement);
         }
@@ -36,52 +135,184 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        if(scopeCount == scopeStarts.length) scopeStarts = Arrays.copyOf(scopeStarts, scopeCount * 2);
+        scopeStarts[scopeCount++] = declared.size();
     }
 
-    private void endScope() {
-        scopes.pop();
+    // Returns the number of slots the scope's frame needs
+    private int endScope() {
+        int start = scopeStarts[--scopeCount];
+        int size = declared.size() - start;
+        while(declared.size() > start) {
+            Local local = declared.remove(declared.size() - 1);
+            locals[local.symbol] = local.shadowed;
+        }
+        return size;
     }
 
-    private void declare(Token name) {
-        if(scopes.isEmpty()) return;
-        Map<String, Boolean> scope = scopes.peek();
-        if(scope.containsKey(name.lexeme)) {
-            Main.error(name, "Already a variable with this name in the scope");
-        }
-        scope.put(name.lexeme, false);
+    // Innermost local with the name, null if it's global
+    private Local lookUp(Token name) {
+        if(name.symbol >= locals.length) return null;
+        return locals[name.symbol];
     }
 
+    // Returns the slot given to the name, -1 for globals
+    private int declare(Token name) {
+        if(scopeCount == 0) return -1;
+        int scope = scopeCount - 1;
+        Local shadowed = lookUp(name);
+        if(shadowed != null && shadowed.scope == scope) {
+            errors.error(name, "Already a variable with this name in the scope");
+            return shadowed.slot;
+        }
 
+        if(name.symbol >= locals.length) locals = Arrays.copyOf(locals, Math.max(locals.length * 2, name.symbol + 1));
+        Local local = new Local(name.symbol, declared.size() - scopeStarts[scope], scope, shadowed);
+        locals[name.symbol] = local;
+        declared.add(local);
+        return local.slot;
+    }
 
     private void define(Token name) {
-        if(scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        if(scopeCount == 0) return;
+        lookUp(name).defined = true;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
-        for(int i = scopes.size() - 1; i >= 0; i++) {
-            if(scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
-            }
-        }
+    // How many scopes out the name lives, -1 if not found (global)
+    private int depthOf(Token name) {
+        Local local = lookUp(name);
+        if(local == null) return -1;
+        return scopeCount - 1 - local.scope;
     }
 
-    private void resolveFunction(Stmt.Function function, FunctionType type) {
+    private int slotOf(Token name) {
+        return lookUp(name).slot;
+    }
+
+    // The global's Local, made the first time the program mentions it
+    private Local global(Token name) {
+        return globals.computeIfAbsent(name.symbol, symbol -> new Local(symbol, -1, -1, null));
+    }
+
+    // A global declared a second time is as good as assigned, defined marks the first
+    private Local declareGlobal(Token name) {
+        Local global = global(name);
+        if(global.defined) global.assigned = true;
+        global.defined = true;
+        return global;
+    }
+
+    // Innermost local with the name, or the global when there's none
+    private Local binding(Token name) {
+        Local local = lookUp(name);
+        return local != null ? local : global(name);
+    }
+
+    private Body resolveFunction(Stmt.Function function, FunctionType type) {
 
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
-
+        Stmt.Function enclosingDeclaration = currentDeclaration;
+        if(enclosingDeclaration != null) enclosingDeclaration.hasClosures = true;
+        currentDeclaration = function;
 
         beginScope();
+        int enclosingMemoScope = memoScope;
+        if(function.memo && memoScope == -1) memoScope = scopeCount - 1;
+        Body body = new Body(function, scopeCount - 1, memoScope);
+        open.add(body);
+        bodies.add(body);
+
         for(Token param: function.params) {
             declare(param);
             define(param);
+            lookUp(param).param = true;
         }
-        resolve(function.body);
-        endScope();
+        resolveAll(function.body);
+        function.frameSize = endScope();
+        open.remove(open.size() - 1);
         currentFunction = enclosingFunction;
+        currentDeclaration = enclosingDeclaration;
+        memoScope = enclosingMemoScope;
+        return body;
+    }
+
+    // Works out Stmt.Function.independent, a function is independent when neither it nor anything
+    // it calls assigns outside it
+    // Calls through its own params are trusted, anything else that isn't a function the program
+    // declares once and never assigns could do anything
+    // Then checks memo functions don't get around their rules through a helper or a variable that changes
+    private void settle() {
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(Body body : bodies) {
+                for(Use call : body.calls) {
+                    int assigns = assignsOutside(call.local);
+                    if(assigns < body.assigns) {
+                        body.assigns = assigns;
+                        changed = true;
+                    }
+
+                    Body callee = declared(call.local);
+                    if(!body.impure && callee != null && callee.impure) {
+                        body.impure = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        for(Body body : bodies) {
+            body.function.independent = body.assigns >= body.scope;
+            if(body.memoScope != -1) checkMemoCalls(body);
+        }
+        checkMemoReads();
+    }
+
+    // Only calls to functions the program declares once can be followed, calls through anything
+    // else could reach any function, the same as for independent
+    // A memo function calling one checks its own calls, so only the first step out of memo is reported
+    private void checkMemoCalls(Body body) {
+        for(Use call : body.calls) {
+            Body callee = declared(call.local);
+            if(callee == null) {
+                // Natives that aren't impure, the impure ones were reported where they're called
+                if(call.local.scope == -1 && !call.local.reassigned) continue;
+                errors.error(call.name, "Can't call " + call.name.lexeme + " from a memo function, it could hold any function");
+                continue;
+            }
+            if(callee.memoScope != -1) continue;
+
+            if(callee.impure) {
+                errors.error(call.name, "Can't call " + call.name.lexeme + " from a memo function, it calls natives like clock");
+            } else if(callee.assigns < callee.scope && callee.assigns < body.memoScope) {
+                errors.error(call.name, "Can't call " + call.name.lexeme + " from a memo function, it assigns to variables outside it");
+            }
+        }
+    }
+
+    // A cached result would keep the value the variable had on the first call
+    private void checkMemoReads() {
+        for(Use read : memoReads) {
+            if(read.local.assigned) {
+                errors.error(read.name, "Can't read " + read.name.lexeme + " from a memo function, it's assigned outside it");
+            }
+        }
+    }
+
+    // The function a call to the name always reaches, null when it isn't known
+    private static Body declared(Local callee) {
+        return callee.reassigned ? null : callee.function;
+    }
+
+    // Outermost scope a call to the name assigns to outside the callee itself
+    private static int assignsOutside(Local callee) {
+        Body body = declared(callee);
+        if(body == null) {
+            return !callee.reassigned && callee.scope == -1 && isIndependentNative(callee.symbol) ? NOWHERE : -1;
+        }
+        return body.assigns < body.scope ? body.assigns : NOWHERE;
     }
 
 
@@ -89,14 +320,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
         beginScope();
-        resolve(stmt.statements);
-        endScope();
+        resolveAll(stmt.statements);
+        stmt.frameSize = endScope();
         return null;
     }
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
+        if(stmt.slot == -1) declareGlobal(stmt.name).reassigned = true;
         if(stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -106,26 +338,51 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if(!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Main.error(expr.name, "Can't read local variable in it's own init");
+        if(scopeCount > 0) {
+            Local local = lookUp(expr.name);
+            if(local != null && local.scope == scopeCount - 1 && !local.defined) {
+                errors.error(expr.name, "Can't read local variable in it's own init");
+            }
         }
-        resolveLocal(expr, expr.name);
+        expr.depth = depthOf(expr.name);
+        if(expr.depth != -1) expr.slot = slotOf(expr.name);
+
+        int scope = expr.depth == -1 ? -1 : scopeCount - 1 - expr.depth;
+        if(memoScope != -1 && scope < memoScope) memoReads.add(new Use(binding(expr.name), expr.name));
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = depthOf(expr.name);
+        if(expr.depth != -1) expr.slot = slotOf(expr.name);
+
+        // A cached call would skip the assignment
+        int scope = expr.depth == -1 ? -1 : scopeCount - 1 - expr.depth;
+        if(memoScope != -1 && scope < memoScope) {
+            errors.error(expr.name, "Can't assign to a variable outside a memo function");
+        }
+
+        // Calls running at once would race on it, see Parallel
+        for(Body body : open) {
+            body.assigns = Math.min(body.assigns, scope);
+        }
+        Local target = binding(expr.name);
+        target.reassigned = true;
+        target.assigned = true;
         return null;
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
 
-        resolveFunction(stmt, FunctionType.FUNCTION);
+        Body body = resolveFunction(stmt, FunctionType.FUNCTION);
+        Local local = stmt.slot == -1 ? declareGlobal(stmt.name) : lookUp(stmt.name);
+        if(local.function != null) local.reassigned = true;
+        else local.function = body;
         return null;
     }
 
@@ -152,11 +409,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if(currentFunction == FunctionType.NONE) {
-            Main.error(stmt.keyword, "Can't return from a top level");
+            errors.error(stmt.keyword, "Can't return from a top level");
         }
         if(stmt.value != null) {
             resolve(stmt.value);
         }
+
+        // Nothing is left to do in this function once the call returns
+        stmt.tailCall = currentFunction == FunctionType.FUNCTION && stmt.value instanceof Expr.Call;
         return null;
     }
 
@@ -171,19 +431,57 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
         resolve(expr.right);
+
+        switch(expr.operator.type) {
+            case MINUS:
+            case STAR:
+            case SLASH:
+                expr.numeric = true;
+                break;
+            case PLUS:
+                // A number on either side rules out string concatenation
+                expr.numeric = isNumeric(expr.left) || isNumeric(expr.right);
+                break;
+            default:
+                break;
+        }
         return null;
     }
 
     @Override
     public Void visitCallExpr(Expr.Call expr) {
         resolve(expr.callee);
-        
+
+        if(memoScope != -1 && expr.callee instanceof Expr.Variable) {
+            Expr.Variable callee = (Expr.Variable)expr.callee;
+            if(callee.depth == -1 && isImpureNative(callee.name)) {
+                errors.error(callee.name, "Can't call " + callee.name.lexeme + " from a memo function");
+            }
+        }
+
+        if(!open.isEmpty()) calledBy(open.get(open.size() - 1), expr);
+
         for(Expr arguement : expr.arguements) {
             resolve(arguement);
         }
         return null;
     }
 
+    // Notes the callee for settle, anything but a name is taken to assign anywhere
+    private void calledBy(Body body, Expr.Call call) {
+        if(!(call.callee instanceof Expr.Variable)) {
+            body.assigns = -1;
+            if(body.memoScope != -1) errors.error(call.paren, "Can't call a function made by an expression from a memo function");
+            return;
+        }
+
+        Expr.Variable variable = (Expr.Variable)call.callee;
+        if(variable.depth == -1 && isImpureNative(variable.name)) body.impure = true;
+        Local local = binding(variable.name);
+        if(local.param && local.scope == body.scope) return;
+        body.calls.add(new Use(local, variable.name));
+    }
+
     @Override 
     public Void visitGroupingExpr(Expr.Grouping expr) {
         resolve(expr.expression);
@@ -209,12 +507,26 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    private static boolean isImpureNative(Token name) {
+        for(int symbol : IMPURE_NATIVES) {
+            if(name.symbol == symbol) return true;
+        }
+        return false;
+    }
 
+    private static boolean isIndependentNative(int symbol) {
+        for(int independent : INDEPENDENT_NATIVES) {
+            if(symbol == independent) return true;
+        }
+        return false;
+    }
 
-
-
-
-
-
-
+    // True when the expression either produces a number or throws
+    private boolean isNumeric(Expr expr) {
+        if(expr instanceof Expr.Literal) return ((Expr.Literal)expr).value instanceof Double;
+        if(expr instanceof Expr.Grouping) return isNumeric(((Expr.Grouping)expr).expression);
+        if(expr instanceof Expr.Binary) return ((Expr.Binary)expr).numeric;
+        if(expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator.type == TokenType.MINUS;
+        return false;
+    }
 }
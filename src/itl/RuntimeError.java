@@ -7,4 +7,9 @@ public class RuntimeError extends RuntimeException {
         super(message);
         this.token = token;
     }
+
+    // Errors from natives are reported at the call that reached them
+    static RuntimeError at(Token token, RuntimeError error) {
+        return error.token != null ? error : new RuntimeError(token, error.getMessage());
+    }
 }
@@ -2,53 +2,161 @@ package itl;
 
 import static itl.TokenType.*;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
+// Reads the source through a window of chars, start and current index into it
+// The window only has to hold the token being scanned, see fill()
 class Scanner {
-    public final String source;
+    private static final int CHUNK = 8192;
+
+    private final Reader reader;
+    private char[] buffer;
+    private int limit;
+    private boolean drained;
+
     public final List<Token> tokens = new ArrayList<>();
-    
+    private boolean ended = false;
+
     public int start = 0;
     public int current = 0;
     public int line = 1;
 
-    public static final Map<String, TokenType> keywords;
+    // Names and number text, shared by every token that spells them
+    private final Symbols symbols = Symbols.GLOBAL;
+
+    // Lexemes of tokens that are always spelled the same, by TokenType ordinal
+    private static final String[] FIXED = new String[TokenType.values().length];
 
     static {
-        keywords = new HashMap<>();
-        keywords.put("and",    AND);
-        keywords.put("class",  CLASS);
-        keywords.put("else",   ELSE);
-        keywords.put("false",  FALSE);
-        keywords.put("for",    FOR);
-        keywords.put("function",    FUNCTION);
-        keywords.put("if",     IF);
-        keywords.put("nil",    NIL);
-        keywords.put("or",     OR);
-        keywords.put("print",  PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super",  SUPER);
-        keywords.put("this",   THIS);
-        keywords.put("true",   TRUE);
-        keywords.put("var",    VAR);
-        keywords.put("while",  WHILE);
+        FIXED[LEFT_PAREN.ordinal()] = "(";
+        FIXED[RIGHT_PAREN.ordinal()] = ")";
+        FIXED[LEFT_BRACE.ordinal()] = "{";
+        FIXED[RIGHT_BRACE.ordinal()] = "}";
+        FIXED[COMMA.ordinal()] = ",";
+        FIXED[DOT.ordinal()] = ".";
+        FIXED[MINUS.ordinal()] = "-";
+        FIXED[PLUS.ordinal()] = "+";
+        FIXED[SEMICOLON.ordinal()] = ";";
+        FIXED[SLASH.ordinal()] = "/";
+        FIXED[STAR.ordinal()] = "*";
+        FIXED[BANG.ordinal()] = "!";
+        FIXED[BANG_EQUAL.ordinal()] = "!=";
+        FIXED[EQUAL.ordinal()] = "=";
+        FIXED[EQUAL_EQUAL.ordinal()] = "==";
+        FIXED[GREATER.ordinal()] = ">";
+        FIXED[GREATER_EQUAL.ordinal()] = ">=";
+        FIXED[LESS.ordinal()] = "<";
+        FIXED[LESS_EQUAL.ordinal()] = "<=";
+        FIXED[EOF.ordinal()] = "";
     }
 
+    // The token scan() found, see token()
+    TokenType type;
+    // null for strings and plain integers, their lexeme is only built if a Token is made
+    String lexeme;
+    Object literal;
+    int tokenLine;
+    int symbol;
+
+    final ErrorSink errors;
+
     Scanner(String source) {
-        this.source = source;
+        this(source, Main.errors);
+    }
+
+    Scanner(Reader reader) {
+        this(reader, Main.errors);
+    }
+
+    // The whole source is already in memory, so it becomes the window
+    Scanner(String source, ErrorSink errors) {
+        this.errors = errors;
+        this.reader = null;
+        this.buffer = source.toCharArray();
+        this.limit = buffer.length;
+        this.drained = true;
+    }
+
+    Scanner(Reader reader, ErrorSink errors) {
+        this.errors = errors;
+        this.reader = reader;
+        this.buffer = new char[CHUNK];
+        this.limit = 0;
+        this.drained = false;
     }
 
+    // Scans everything up front, nextToken is the streaming way
     List<Token> scanTokens() {
-        while(!isAtEnd()) {
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while(token.type != EOF);
+        return tokens;
+    }
+
+    Token nextToken() {
+        scan();
+        return token();
+    }
+
+    // Scans just far enough to fill in the next token, EOF once the source runs out
+    // Nothing is allocated for the token itself, TokenStream only makes Tokens the Parser asks for
+    TokenType scan() {
+        type = null;
+        while(type == null) {
+            if(isAtEnd()) {
+                if(ended) throw new IllegalStateException("Scanner already reached EOF");
+                ended = true;
+                addToken(EOF);
+                break;
+            }
             start = current;
             scanToken();
         }
+        return type;
+    }
 
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+    Token token() {
+        return token(type, lexeme, literal, tokenLine, symbol);
+    }
+
+    static Token token(TokenType type, String lexeme, Object literal, int line, int symbol) {
+        if(lexeme == null) lexeme = type == NUMBER ? Long.toString((long)(double)literal) : "\"" + literal + "\"";
+        return new Token(type, lexeme, literal, line, symbol);
+    }
+
+    // Makes sure buffer[current + ahead] is loaded, returns false past the end
+    // Everything before start is already scanned, so it gets dropped to make room
+    private boolean fill(int ahead) {
+        while(current + ahead >= limit) {
+            if(drained) return false;
+
+            if(start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, limit - start);
+                limit -= start;
+                current -= start;
+                start = 0;
+            }
+            if(limit == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+            try {
+                int read = reader.read(buffer, limit, buffer.length - limit);
+                if(read == -1) {
+                    drained = true;
+                } else {
+                    limit += read;
+                }
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return true;
     }
 
     public void scanToken() {
@@ -95,7 +203,7 @@ class Scanner {
 
             case '"': string(); break;
 
-            // reports error and sets hadError to true
+            // reports error and sets hadError on the sink
             default:
                 if(isDigit(c)) {
                     number();
@@ -103,7 +211,7 @@ class Scanner {
                     identifier();
                 }
                 else {
-                    Main.error(line, "Unexpeced character.");
+                    errors.error(line, "Unexpeced character.");
                 }
                 break;
         }
@@ -112,28 +220,113 @@ class Scanner {
     public void identifier() {
         while(isAlphaNumberic(peek())) advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text.toLowerCase());
+        TokenType type = keyword(buffer, start, current - start);
         if(type == null) type = IDENTIFIER;
-        addToken(type);
+        int id = symbols.intern(buffer, start, current - start);
+        addToken(type, symbols.name(id), null);
+        // Keywords share the interned text but aren't names
+        if(type == IDENTIFIER) symbol = id;
     }
 
+    // Keywords are case insensitive, matched on the chars without lowering them into a new String
+    // Length and first letter pick the only candidate, so each identifier gets at most one comparison
+    static TokenType keyword(char[] chars, int start, int length) {
+        if(length < 2 || length > 8) return null;
+
+        switch(length) {
+            case 2:
+                switch(lower(chars[start])) {
+                    case 'i': return rest(chars, start, "if", IF);
+                    case 'o': return rest(chars, start, "or", OR);
+                }
+                return null;
+            case 3:
+                switch(lower(chars[start])) {
+                    case 'a': return rest(chars, start, "and", AND);
+                    case 'f': return rest(chars, start, "for", FOR);
+                    case 'n': return rest(chars, start, "nil", NIL);
+                    case 'v': return rest(chars, start, "var", VAR);
+                }
+                return null;
+            case 4:
+                switch(lower(chars[start])) {
+                    case 'e': return rest(chars, start, "else", ELSE);
+                    case 'm': return rest(chars, start, "memo", MEMO);
+                    case 't':
+                        if(lower(chars[start + 1]) == 'h') return rest(chars, start, "this", THIS);
+                        return rest(chars, start, "true", TRUE);
+                }
+                return null;
+            case 5:
+                switch(lower(chars[start])) {
+                    case 'c': return rest(chars, start, "class", CLASS);
+                    case 'f': return rest(chars, start, "false", FALSE);
+                    case 'p': return rest(chars, start, "print", PRINT);
+                    case 's': return rest(chars, start, "super", SUPER);
+                    case 'w': return rest(chars, start, "while", WHILE);
+                }
+                return null;
+            case 6:
+                switch(lower(chars[start])) {
+                    case 'r': return rest(chars, start, "return", RETURN);
+                }
+                return null;
+            case 8:
+                switch(lower(chars[start])) {
+                    case 'f': return rest(chars, start, "function", FUNCTION);
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    // The first character was already matched by the caller
+    private static TokenType rest(char[] chars, int start, String keyword, TokenType type) {
+        for(int i = 1; i < keyword.length(); i++) {
+            if(lower(chars[start + i]) != keyword.charAt(i)) return null;
+        }
+        return type;
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char)(c + ('a' - 'A')) : c;
+    }
 
     public void number() {
+        // Plain integers are added up as they're read, no text to parse afterwards
+        // scanToken already took the first digit
+        long integer = buffer[start] - '0';
+        int digits = 1;
+
         // consiume digits until not number
-        while(isDigit(peek())) advance();
+        while(isDigit(peek())) {
+            integer = integer * 10 + (advance() - '0');
+            digits++;
+        }
 
         // if dot and after dot is a number, keep advancing
         // dont allow trailing dots
+        boolean fraction = false;
         if(peek() == '.' && isDigit(peekNext())) {
             advance();
+            fraction = true;
 
             while(isDigit(peek())) advance();
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
-
+        // Numbers aren't interned, every literal a long running process reads would stay in Symbols for good
+        if(fraction || digits > 15) {
+            String text = new String(buffer, start, current - start);
+            // Past 15 digits a long can overflow or round differently, parseDouble gets it right
+            addToken(NUMBER, text, Double.parseDouble(text));
+            return;
+        }
 
+        // A plain integer's text is spelled from its value if a Token is ever made, see token()
+        // Leading zeros can't be, so only those keep theirs
+        boolean padded = digits > 1 && buffer[start] == '0';
+        addToken(NUMBER, padded ? new String(buffer, start, current - start) : null, (double)integer);
     }
 
 
@@ -145,7 +338,7 @@ class Scanner {
         }
 
         if(isAtEnd()) {
-            Main.error(line, "Unterminated string");
+            errors.error(line, "Unterminated string");
             return;
         }
 
@@ -153,14 +346,14 @@ class Scanner {
         advance();
 
         // Trim quots
-        String value = source.substring(start + 1, current - 1);
-        addToken(STRING, value);
+        String value = new String(buffer, start + 1, current - start - 2);
+        addToken(STRING, null, value);
     }
 
     // Only consume char if matches
     public boolean match(char expected) {
         if(isAtEnd()) return false;
-        if(source.charAt(current) != expected) return false;
+        if(buffer[current] != expected) return false;
         
         current++;
         return true;
@@ -169,12 +362,12 @@ class Scanner {
     // advance but doesnt consume next char
     public char peek() {
         if(isAtEnd()) return '\0';
-        return source.charAt(current);
+        return buffer[current];
     }
 
     public char peekNext() {
-        if(current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        if(!fill(1)) return '\0';
+        return buffer[current + 1];
     }
 
     // Make sure identifiers are using the correct letters we want
@@ -193,21 +386,24 @@ class Scanner {
     }
 
     public boolean isAtEnd() {
-        return current >= source.length();
+        return !fill(0);
     }
 
     // consume next char in sf
     public char advance() {
-        return source.charAt(current++);
+        fill(0);
+        return buffer[current++];
     }
 
     public void addToken(TokenType type) {
-        addToken(type, null);
+        addToken(type, FIXED[type.ordinal()], null);
     }
 
-    // add token to list
-    public void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    public void addToken(TokenType type, String lexeme, Object literal) {
+        this.type = type;
+        this.lexeme = lexeme;
+        this.literal = literal;
+        this.tokenLine = line;
+        this.symbol = -1;
     }
 }
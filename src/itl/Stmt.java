@@ -24,6 +24,8 @@ abstract class Stmt{
     }
 
     final List<Stmt> statements;
+    // Number of locals declared directly in this block
+    int frameSize;
    }
  static class Expression extends Stmt {
     Expression(Expr expression) {
@@ -38,10 +40,11 @@ abstract class Stmt{
     final Expr expression;
    }
  static class Function extends Stmt {
-    Function(Token name, List<Token> params, List<Stmt> body) {
+    Function(Token name, List<Token> params, List<Stmt> body, boolean memo) {
     this.name = name;
     this.params = params;
     this.body = body;
+    this.memo = memo;
     }
 
     @Override
@@ -52,6 +55,19 @@ abstract class Stmt{
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    // Declared with memo, results are cached by arguements
+    final boolean memo;
+    // Slot of the function name, -1 when declared globally
+    int slot = -1;
+    // Params plus locals declared directly in the body
+    int frameSize;
+    // Call count and compiled body, see Jit
+    int calls;
+    JitCode jitted;
+    // Set by the Resolver when a nested function can capture the frame
+    boolean hasClosures;
+    // Set by the Resolver when neither the body nor anything it calls assigns to a variable declared outside it, see Parallel
+    boolean independent;
    }
  static class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -94,6 +110,8 @@ abstract class Stmt{
 
     final Token keyword;
     final Expr value;
+    // Set by the Resolver for return f(...) inside a function
+    boolean tailCall;
    }
  static class Var extends Stmt {
     Var(Token name, Expr initializer) {
@@ -108,6 +126,8 @@ abstract class Stmt{
 
     final Token name;
     final Expr initializer;
+    // Slot of the variable, -1 when declared globally
+    int slot = -1;
    }
  static class While extends Stmt {
     While(Expr condition, Stmt body) {
@@ -0,0 +1,95 @@
+package itl;
+
+import java.util.Arrays;
+
+// Interns names straight out of the Scanner's char buffer
+// A name seen before comes back as the same String without copying the chars again
+// Every name gets a dense id, the Resolver and globals compare and index by it instead of hashing Strings
+final class Symbols {
+
+    // Shared by every Scanner, so the same name has the same id in every program
+    static final Symbols GLOBAL = new Symbols();
+
+    // Only intern writes, under the lock, so ids can be read from any thread
+    private volatile String[] names = new String[256];
+    private int[] hashes = new int[256];
+    private int count = 0;
+
+    // Open addressing, holds id + 1 so 0 means empty
+    private int[] table = new int[512];
+
+    // Returns the id of the symbol spelled by chars[start, start + length)
+    synchronized int intern(char[] chars, int start, int length) {
+        int hash = hash(chars, start, length);
+        int mask = table.length - 1;
+
+        for(int i = hash & mask; ; i = (i + 1) & mask) {
+            int entry = table[i];
+            if(entry == 0) break;
+
+            int id = entry - 1;
+            if(hashes[id] == hash && matches(names[id], chars, start, length)) return id;
+        }
+
+        return add(new String(chars, start, length), hash);
+    }
+
+    int intern(String name) {
+        char[] chars = name.toCharArray();
+        return intern(chars, 0, chars.length);
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    private int add(String name, int hash) {
+        if(count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            hashes = Arrays.copyOf(hashes, count * 2);
+        }
+
+        int id = count++;
+        names[id] = name;
+        hashes[id] = hash;
+
+        // Keep the table at most half full
+        if(count * 2 > table.length) {
+            rehash(table.length * 2);
+        } else {
+            insert(id);
+        }
+        return id;
+    }
+
+    private void rehash(int size) {
+        table = new int[size];
+        for(int id = 0; id < count; id++) {
+            insert(id);
+        }
+    }
+
+    private void insert(int id) {
+        int mask = table.length - 1;
+        int i = hashes[id] & mask;
+        while(table[i] != 0) i = (i + 1) & mask;
+        table[i] = id + 1;
+    }
+
+    // Same as String.hashCode, spread so nearby names don't cluster
+    private static int hash(char[] chars, int start, int length) {
+        int hash = 0;
+        for(int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, char[] chars, int start, int length) {
+        if(name.length() != length) return false;
+        for(int i = 0; i < length; i++) {
+            if(name.charAt(i) != chars[start + i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,60 @@
+package itl;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+// A function call running on its own virtual thread, started by spawn and joined by await
+// The task runs in its own Interpreter, which shares globals, errors and output with the one that spawned it
+// The frames the function closed over are copied when it's spawned, and so are the functions in them and
+// the frames those close over, so no two threads ever share locals
+final class Task {
+
+    private final FutureTask<Object> result;
+
+    private Task(Interpreter interpreter, ItlCallable function) {
+        this.result = new FutureTask<>(() -> function.call(interpreter, List.of()));
+    }
+
+    static Object spawn(Interpreter interpreter, List<Object> arguements) {
+        Object callee = arguements.get(0);
+        if(!(callee instanceof ItlCallable) || ((ItlCallable)callee).arity() != 0) {
+            throw new RuntimeError(null, "spawn takes a function with no parameters");
+        }
+
+        Task task = new Task(new Interpreter(interpreter), (ItlCallable)detach(callee, new IdentityHashMap<>()));
+        Thread.ofVirtual().name("itl-task").start(task.result);
+        return task;
+    }
+
+    static Object await(Interpreter interpreter, List<Object> arguements) {
+        if(!(arguements.get(0) instanceof Task)) throw new RuntimeError(null, "await takes a task");
+
+        try {
+            return ((Task)arguements.get(0)).result.get();
+        } catch(ExecutionException e) {
+            // Reported at the line in the task it came from
+            if(e.getCause() instanceof RuntimeError) throw (RuntimeError)e.getCause();
+            throw new RuntimeError(null, "Task failed with " + e.getCause());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(null, "Interrupted while awaiting a task");
+        }
+    }
+
+    // The same value, with a function closed over copies of its frames
+    // Anything else is shared, channels and tasks are how tasks talk to each other
+    static Object detach(Object value, Map<Object, Object> copies) {
+        if(value instanceof ItlFunction) return ((ItlFunction)value).detach(copies);
+        if(value instanceof CompiledFunction) return ((CompiledFunction)value).detach(copies);
+        if(value instanceof VmFunction) return ((VmFunction)value).detach(copies);
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+}
@@ -0,0 +1,92 @@
+package itl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// nanoClock, sleep and animate, so animations wait for their next frame instead of polling clock
+// Waiting parks the thread, a virtual one gives its carrier back while it waits
+final class Timing {
+
+    // nanoClock counts from here, so it stays a whole number a double holds exactly for months
+    private static final long ORIGIN = System.nanoTime();
+
+    private Timing() { }
+
+    // Nanoseconds on a clock that never goes backwards, only the difference between two readings means anything
+    static Object nanoClock(Interpreter interpreter, List<Object> arguements) {
+        return (double)(System.nanoTime() - ORIGIN);
+    }
+
+    // sleep(seconds), fractions of a second included
+    static Object sleep(Interpreter interpreter, List<Object> arguements) {
+        if(!(arguements.get(0) instanceof Double)) throw new RuntimeError(null, "sleep takes a number of seconds");
+        long nanos = (long)((double)arguements.get(0) * 1e9);
+        if(nanos > 0) waitUntil(System.nanoTime() + nanos);
+        return null;
+    }
+
+    // animate(fps, count, fn) calls fn(frame) for frames 0 to count - 1, frame n at n / fps seconds after the first
+    // A frame whose time has passed by the time the one before it returns is dropped, so the rest stay on time
+    // and the frame numbers fn sees skip it. Stops early when fn returns false
+    // Returns a report of the frames run, dropped and how late they started
+    static Object animate(Interpreter interpreter, List<Object> arguements) {
+        Object fps = arguements.get(0);
+        Object count = arguements.get(1);
+        if(!(fps instanceof Double) || (double)fps <= 0) throw new RuntimeError(null, "Frames per second must be a number above 0");
+        if(!(count instanceof Double) || (double)count < 0 || (double)count != Math.floor((double)count)) {
+            throw new RuntimeError(null, "Frame count must be a whole number");
+        }
+        if(!(arguements.get(2) instanceof ItlCallable) || ((ItlCallable)arguements.get(2)).arity() != 1) {
+            throw new RuntimeError(null, "animate takes a function with 1 parameter");
+        }
+        ItlCallable frame = (ItlCallable)arguements.get(2);
+
+        long frames = (long)(double)count;
+        double period = 1e9 / (double)fps;
+        long start = System.nanoTime();
+        long run = 0;
+        long dropped = 0;
+        long totalLateness = 0;
+        long maxLateness = 0;
+
+        for(long n = 0; n < frames; n++) {
+            long due = start + (long)(n * period);
+            long now = System.nanoTime();
+            // Past the time of the frame after this one, there's no catching up on this one
+            if(now >= start + (long)((n + 1) * period)) {
+                dropped++;
+                continue;
+            }
+            now = waitUntil(due);
+
+            long lateness = now - due;
+            totalLateness += lateness;
+            maxLateness = Math.max(maxLateness, lateness);
+            run++;
+
+            Object result = frame.call(interpreter, Arrays.asList((double)n));
+            if(Boolean.FALSE.equals(result)) break;
+        }
+
+        double mean = run == 0 ? 0 : totalLateness / (double)run / 1e6;
+        return String.format(Locale.ROOT, "%d frames, %d dropped, jitter %.3f ms mean, %.3f ms max", run, dropped, mean, maxLateness / 1e6);
+    }
+
+    // Parks until deadline, parkNanos can come back early so it goes round until it's reached
+    // Returns the time it woke at
+    private static long waitUntil(long deadline) {
+        for(;;) {
+            long now = System.nanoTime();
+            long left = deadline - now;
+            if(left <= 0) return now;
+            LockSupport.parkNanos(left);
+            if(Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeError(null, "Interrupted while waiting");
+            }
+        }
+    }
+}
@@ -5,12 +5,19 @@ class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    // Id of the name in Symbols.GLOBAL, -1 for anything that isn't a name
+    final int symbol;
 
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, -1);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int symbol) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = symbol;
     }
 
     public String toString() {
@@ -0,0 +1,131 @@
+package itl;
+
+import java.util.Iterator;
+import java.util.List;
+
+// Tokens pulled one at a time as the Parser asks for them
+// Only the previous token and a few ahead are kept, never the whole file
+// The window holds each token's parts in parallel arrays, a Token is only made
+// for the ones the Parser actually keeps (names, operators, literals)
+final class TokenStream {
+
+    // Furthest the Parser can look past the current token
+    static final int LOOKAHEAD = 2;
+    private static final int SIZE = LOOKAHEAD + 2;
+
+    private final Scanner scanner;
+    private final Iterator<Token> list;
+
+    private final TokenType[] types = new TokenType[SIZE];
+    private final String[] lexemes = new String[SIZE];
+    private final Object[] literals = new Object[SIZE];
+    private final int[] lines = new int[SIZE];
+    private final int[] symbols = new int[SIZE];
+    // Made on first use, null until then
+    private final Token[] window = new Token[SIZE];
+
+    // Number of tokens consumed, and number pulled from the source
+    private int position = 0;
+    private int pulled = 0;
+    private boolean ended = false;
+
+    TokenStream(Scanner scanner) {
+        this.scanner = scanner;
+        this.list = null;
+    }
+
+    // For tokens that were already scanned into a list
+    TokenStream(List<Token> tokens) {
+        this.scanner = null;
+        this.list = tokens.iterator();
+    }
+
+    // ahead 0 is the next token to be consumed, the last one repeats past the end
+    private int fill(int ahead) {
+        if(ahead > LOOKAHEAD) throw new IllegalArgumentException("Can only look " + LOOKAHEAD + " tokens ahead");
+
+        while(pulled <= position + ahead) {
+            int slot = pulled % SIZE;
+            if(ended) {
+                int last = (pulled - 1) % SIZE;
+                types[slot] = types[last];
+                lexemes[slot] = lexemes[last];
+                literals[slot] = literals[last];
+                lines[slot] = lines[last];
+                symbols[slot] = symbols[last];
+                window[slot] = window[last];
+            } else if(scanner != null) {
+                types[slot] = scanner.scan();
+                lexemes[slot] = scanner.lexeme;
+                literals[slot] = scanner.literal;
+                lines[slot] = scanner.tokenLine;
+                symbols[slot] = scanner.symbol;
+                window[slot] = null;
+            } else {
+                Token token = list.next();
+                types[slot] = token.type;
+                lexemes[slot] = token.lexeme;
+                literals[slot] = token.literal;
+                lines[slot] = token.line;
+                symbols[slot] = token.symbol;
+                window[slot] = token;
+            }
+            if(types[slot] == TokenType.EOF) ended = true;
+            pulled++;
+        }
+        return (position + ahead) % SIZE;
+    }
+
+    TokenType peekType(int ahead) {
+        return types[fill(ahead)];
+    }
+
+    TokenType peekType() {
+        return peekType(0);
+    }
+
+    Token peek(int ahead) {
+        return token(fill(ahead));
+    }
+
+    Token peek() {
+        return peek(0);
+    }
+
+    // Most recently consumed, null before the first
+    Token previous() {
+        if(position == 0) return null;
+        return token((position - 1) % SIZE);
+    }
+
+    // Literal of the most recently consumed token, without making it
+    Object previousLiteral() {
+        return literals[(position - 1) % SIZE];
+    }
+
+    TokenType previousType() {
+        if(position == 0) return null;
+        return types[(position - 1) % SIZE];
+    }
+
+    // Moves past the next token without making it
+    void skip() {
+        fill(0);
+        position++;
+    }
+
+    Token advance() {
+        Token token = peek();
+        position++;
+        return token;
+    }
+
+    private Token token(int slot) {
+        Token token = window[slot];
+        if(token == null) {
+            token = Scanner.token(types[slot], lexemes[slot], literals[slot], lines[slot], symbols[slot]);
+            window[slot] = token;
+        }
+        return token;
+    }
+}
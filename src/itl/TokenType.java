@@ -12,7 +12,7 @@ public enum TokenType{
 
    IDENTIFIER, STRING, NUMBER,
 
-   AND, CLASS, ELSE, FALSE, FUNCTION, FOR, IF, NIL, OR, 
+   AND, CLASS, ELSE, FALSE, FUNCTION, FOR, IF, MEMO, NIL, OR, 
    PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
 
    EOF
@@ -0,0 +1,229 @@
+package itl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.UnixDomainSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+// Carries sendToTree updates to the tree over one connection kept open for the whole JVM
+// The script only queues an update, a background thread takes everything queued so far and sends it
+// as one frame, an update per line. When the queue is full the script waits for room
+// The endpoint comes from itl.tree.endpoint: ws:// or wss:// for a WebSocket, or tcp://host:port and
+// unix:/path for a plain socket, so a stand-in server can take the tree's place
+final class TreeLink {
+
+    static final String ENDPOINT = System.getProperty("itl.tree.endpoint", "ws://localhost:8765");
+    private static final int CAPACITY = Integer.getInteger("itl.tree.queue", 4096);
+    // Most updates sent in one frame
+    private static final int BATCH = Integer.getInteger("itl.tree.batch", 512);
+    // How long the end of a run waits for queued updates to go out
+    private static final long FLUSH_MILLIS = Long.getLong("itl.tree.flush", 5000);
+    // Updates are dropped while the endpoint is down, it's tried again after this long
+    private static final long RETRY_MILLIS = 1000;
+
+    private static TreeLink shared;
+
+    private final URI endpoint;
+    private final BlockingQueue<String> updates = new ArrayBlockingQueue<>(CAPACITY);
+    // Updates sent or dropped so far, against the number queued
+    private long queued = 0;
+    private long done = 0;
+
+    // Only touched by the drain thread
+    private Connection connection = null;
+    private long lastFailure = 0;
+
+    private TreeLink(URI endpoint) {
+        this.endpoint = endpoint;
+        Thread drain = new Thread(this::drain, "itl-tree");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    // Opened by the first sendToTree
+    static synchronized TreeLink shared() {
+        if(shared == null) shared = new TreeLink(URI.create(ENDPOINT));
+        return shared;
+    }
+
+    // Waits for every update queued so far, a no-op if nothing was ever sent
+    static void flush() {
+        TreeLink link;
+        synchronized(TreeLink.class) {
+            link = shared;
+        }
+        if(link != null) link.await(FLUSH_MILLIS);
+    }
+
+    // Only counted once it's in the queue, an interrupted put would leave flush waiting on it
+    // The drain thread can finish it first, done running ahead of queued for a moment is harmless
+    void send(String update) throws InterruptedException {
+        updates.put(update);
+        synchronized(this) {
+            queued++;
+        }
+    }
+
+    private synchronized void await(long millis) {
+        long target = queued;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        try {
+            for(long left = millis; done < target && left > 0; left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) {
+                wait(left);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void finished(int count) {
+        done += count;
+        notifyAll();
+    }
+
+    private void drain() {
+        List<String> batch = new ArrayList<>(BATCH);
+        StringBuilder frame = new StringBuilder();
+        for(;;) {
+            try {
+                batch.add(updates.take());
+            } catch(InterruptedException e) {
+                return;
+            }
+            // Whatever piled up while the last frame was going out goes in this one
+            updates.drainTo(batch, BATCH - 1);
+
+            frame.setLength(0);
+            for(String update : batch) {
+                if(frame.length() > 0) frame.append('\n');
+                frame.append(update);
+            }
+            write(frame.toString());
+            finished(batch.size());
+            batch.clear();
+        }
+    }
+
+    // Reconnects once if the connection dropped, then gives up on the frame
+    private void write(String frame) {
+        for(int attempt = 0; attempt < 2; attempt++) {
+            if(connection == null) {
+                if(System.currentTimeMillis() - lastFailure < RETRY_MILLIS) return;
+                try {
+                    connection = connect();
+                } catch(IOException e) {
+                    fail(e);
+                    return;
+                }
+            }
+
+            try {
+                connection.send(frame);
+                return;
+            } catch(IOException e) {
+                close();
+                if(attempt == 1) fail(e);
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        // Said once per outage, not once per frame
+        if(lastFailure == 0) System.err.println("sendToTree: can't reach " + endpoint + " (" + e.getMessage() + "), updates are dropped until it's back");
+        lastFailure = System.currentTimeMillis();
+    }
+
+    private void close() {
+        try {
+            connection.close();
+        } catch(IOException e) { }
+        connection = null;
+    }
+
+    private Connection connect() throws IOException {
+        Connection connected;
+        switch(String.valueOf(endpoint.getScheme())) {
+            case "ws":
+            case "wss":
+                connected = new WebSocketConnection(endpoint);
+                break;
+            case "tcp":
+                connected = new SocketConnection(new InetSocketAddress(endpoint.getHost(), endpoint.getPort()));
+                break;
+            case "unix":
+                connected = new SocketConnection(UnixDomainSocketAddress.of(endpoint.getPath()));
+                break;
+            default:
+                throw new IOException("unknown scheme, use ws, wss, tcp or unix");
+        }
+        lastFailure = 0;
+        return connected;
+    }
+
+    private interface Connection extends Closeable {
+        void send(String frame) throws IOException;
+    }
+
+    private static final class WebSocketConnection implements Connection {
+        private final WebSocket socket;
+
+        WebSocketConnection(URI endpoint) throws IOException {
+            try {
+                // Anything the tree sends back is read and ignored
+                this.socket = HttpClient.newHttpClient().newWebSocketBuilder()
+                        .buildAsync(endpoint, new WebSocket.Listener() { }).join();
+            } catch(CompletionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        @Override
+        public void send(String frame) throws IOException {
+            try {
+                socket.sendText(frame, true).join();
+            } catch(CompletionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        @Override
+        public void close() {
+            socket.abort();
+        }
+    }
+
+    // Frames are written as lines, the end of a frame is the end of its last line
+    private static final class SocketConnection implements Connection {
+        private final SocketChannel channel;
+
+        SocketConnection(SocketAddress address) throws IOException {
+            this.channel = SocketChannel.open(address);
+        }
+
+        @Override
+        public void send(String frame) throws IOException {
+            ByteBuffer bytes = ByteBuffer.wrap((frame + "\n").getBytes(StandardCharsets.UTF_8));
+            while(bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
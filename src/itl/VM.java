@@ -0,0 +1,378 @@
+package itl;
+
+import static itl.OpCode.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Stack based VM running the Chunks from BytecodeCompiler
+// Natives, globals and value semantics are shared with the Interpreter
+public class VM {
+
+    private static final int MAX_CALL_DEPTH = 100_000;
+
+    private final Interpreter interpreter;
+
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+
+    private static final class CallFrame {
+        Chunk chunk;
+        int ip;
+        // Innermost local frame, null at the top level
+        Frame locals;
+        // Stack index of the callee, the result goes here
+        int base;
+        // Memo calls waiting for this frame's result
+        MemoCache.Pending pending;
+    }
+
+    VM(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    void interpret(Chunk script) {
+        try {
+            push(null);
+            enter(script, null, 0);
+            run(0);
+        } catch(RuntimeError error) {
+            Arrays.fill(stack, 0, sp, null);
+            sp = 0;
+            frameCount = 0;
+            interpreter.runtimeError(error);
+        }
+    }
+
+    // Runs a function to completion from outside the dispatch loop
+    Object call(VmFunction function, List<Object> arguements) {
+        int base = sp;
+        ensureStack(arguements.size() + 1);
+        push(function);
+        for(Object arguement : arguements) {
+            push(arguement);
+        }
+        enter(function.chunk, function.closure, base);
+        if(function.memo != null) frames[frameCount - 1].pending = new MemoCache.Pending(function.memo, arguements, null);
+        return run(frameCount - 1);
+    }
+
+    private void enter(Chunk chunk, Frame closure, int base) {
+        if(frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        CallFrame frame = frames[frameCount];
+        if(frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+
+        frame.chunk = chunk;
+        frame.ip = 0;
+        frame.base = base;
+        frame.pending = null;
+        if(chunk.frameSize > 0 || closure != null) {
+            // Params take the first slots, same as ItlFunction
+            frame.locals = new Frame(closure, chunk.frameSize);
+            System.arraycopy(stack, base + 1, frame.locals.slots, 0, chunk.arity);
+        } else {
+            frame.locals = null;
+        }
+
+        Arrays.fill(stack, base + 1, sp, null);
+        sp = base + 1;
+        ensureStack(chunk.maxStack);
+    }
+
+    private Object run(int exitDepth) {
+        CallFrame current = frames[frameCount - 1];
+        Chunk chunk = current.chunk;
+        byte[] code = chunk.code;
+        Object[] constants = chunk.constants;
+        Frame locals = current.locals;
+        int ip = current.ip;
+
+        for(;;) {
+            int offset = ip;
+            switch(code[ip++]) {
+                case CONSTANT:
+                    push(constants[readShort(code, ip)]);
+                    ip += 2;
+                    break;
+                case NIL: push(null); break;
+                case TRUE: push(true); break;
+                case FALSE: push(false); break;
+                case POP: stack[--sp] = null; break;
+
+                case GET_LOCAL:
+                    push(locals.getAt(readShort(code, ip), readShort(code, ip + 2)));
+                    ip += 4;
+                    break;
+                case SET_LOCAL:
+                    locals.assignAt(readShort(code, ip), readShort(code, ip + 2), stack[sp - 1]);
+                    ip += 4;
+                    break;
+                case STORE_LOCAL:
+                    locals.slots[readShort(code, ip)] = pop();
+                    ip += 2;
+                    break;
+                case GET_GLOBAL:
+                    push(interpreter.globals.get((Token)constants[readShort(code, ip)]));
+                    ip += 2;
+                    break;
+                case SET_GLOBAL:
+                    interpreter.globals.assign((Token)constants[readShort(code, ip)], stack[sp - 1]);
+                    ip += 2;
+                    break;
+                case DEFINE_GLOBAL:
+                    interpreter.globals.define(((Token)constants[readShort(code, ip)]).symbol, pop());
+                    ip += 2;
+                    break;
+
+                case EQUAL: {
+                    Object right = pop();
+                    stack[sp - 1] = interpreter.isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case NOT_EQUAL: {
+                    Object right = pop();
+                    stack[sp - 1] = !interpreter.isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case GREATER: {
+                    Object right = pop();
+                    Object left = stack[sp - 1];
+                    interpreter.checkNumberOperands(chunk.tokens[offset], left, right);
+                    stack[sp - 1] = (double)left > (double)right;
+                    break;
+                }
+                case GREATER_EQUAL: {
+                    Object right = pop();
+                    Object left = stack[sp - 1];
+                    interpreter.checkNumberOperands(chunk.tokens[offset], left, right);
+                    stack[sp - 1] = (double)left >= (double)right;
+                    break;
+                }
+                case LESS: {
+                    Object right = pop();
+                    Object left = stack[sp - 1];
+                    interpreter.checkNumberOperands(chunk.tokens[offset], left, right);
+                    stack[sp - 1] = (double)left < (double)right;
+                    break;
+                }
+                case LESS_EQUAL: {
+                    Object right = pop();
+                    Object left = stack[sp - 1];
+                    interpreter.checkNumberOperands(chunk.tokens[offset], left, right);
+                    stack[sp - 1] = (double)left <= (double)right;
+                    break;
+                }
+                case ADD: {
+                    Object right = pop();
+                    Object left = stack[sp - 1];
+                    stack[sp - 1] = interpreter.add(chunk.tokens[offset], left, right);
+                    break;
+                }
+                case SUBTRACT: {
+                    Object right = pop();
+                    Object left = stack[sp - 1];
+                    interpreter.checkNumberOperands(chunk.tokens[offset], left, right);
+                    stack[sp - 1] = (double)left - (double)right;
+                    break;
+                }
+                case MULTIPLY: {
+                    Object right = pop();
+                    Object left = stack[sp - 1];
+                    interpreter.checkNumberOperands(chunk.tokens[offset], left, right);
+                    stack[sp - 1] = (double)left * (double)right;
+                    break;
+                }
+                case DIVIDE: {
+                    Object right = pop();
+                    Object left = stack[sp - 1];
+                    interpreter.checkNumberOperands(chunk.tokens[offset], left, right);
+                    stack[sp - 1] = (double)left / (double)right;
+                    break;
+                }
+                case NOT:
+                    stack[sp - 1] = !interpreter.isTruthy(stack[sp - 1]);
+                    break;
+                case NEGATE:
+                    interpreter.checkNumberOperand(chunk.tokens[offset], stack[sp - 1]);
+                    stack[sp - 1] = -(double)stack[sp - 1];
+                    break;
+
+                case PRINT:
+                    interpreter.print(pop());
+                    break;
+
+                case JUMP:
+                    ip += 2 + (short)readShort(code, ip);
+                    break;
+                case JUMP_IF_FALSE:
+                    if(!interpreter.isTruthy(stack[sp - 1])) {
+                        ip += 2 + (short)readShort(code, ip);
+                    } else {
+                        ip += 2;
+                    }
+                    break;
+                case JUMP_IF_TRUE:
+                    if(interpreter.isTruthy(stack[sp - 1])) {
+                        ip += 2 + (short)readShort(code, ip);
+                    } else {
+                        ip += 2;
+                    }
+                    break;
+                case POP_JUMP_IF_FALSE:
+                    if(!interpreter.isTruthy(pop())) {
+                        ip += 2 + (short)readShort(code, ip);
+                    } else {
+                        ip += 2;
+                    }
+                    break;
+
+                case CALL:
+                case TAIL_CALL: {
+                    int argCount = code[ip++] & 0xFF;
+                    int base = sp - argCount - 1;
+                    Object callee = stack[base];
+                    Token paren = chunk.tokens[offset];
+
+                    if(callee instanceof VmFunction) {
+                        VmFunction function = (VmFunction)callee;
+                        checkArity(paren, function.chunk.arity, argCount);
+                        boolean tail = code[offset] == TAIL_CALL;
+
+                        // The pending results of a replaced frame move to the callee
+                        MemoCache.Pending pending = tail ? current.pending : null;
+                        if(function.memo != null) {
+                            List<Object> arguements = Arrays.asList(Arrays.copyOfRange(stack, base + 1, sp));
+                            Object cached = function.memo.get(arguements);
+                            if(cached != null) {
+                                // A tail call's RETURN comes next and finishes this frame
+                                Arrays.fill(stack, base, sp, null);
+                                sp = base;
+                                push(MemoCache.unwrap(cached));
+                                break;
+                            }
+                            pending = new MemoCache.Pending(function.memo, arguements, pending);
+                        }
+
+                        if(tail) {
+                            // The callee and arguements take the place of the current call
+                            System.arraycopy(stack, base, stack, current.base, argCount + 1);
+                            Arrays.fill(stack, current.base + argCount + 1, sp, null);
+                            sp = current.base + argCount + 1;
+                            base = current.base;
+                            current.chunk = null;
+                            current.locals = null;
+                            current.pending = null;
+                            frameCount--;
+                        } else if(frameCount == MAX_CALL_DEPTH) {
+                            throw new RuntimeError(paren, "Stack overflow.");
+                        } else {
+                            current.ip = ip;
+                            current.locals = locals;
+                        }
+                        enter(function.chunk, function.closure, base);
+
+                        current = frames[frameCount - 1];
+                        current.pending = pending;
+                        chunk = current.chunk;
+                        code = chunk.code;
+                        constants = chunk.constants;
+                        locals = current.locals;
+                        ip = 0;
+                        break;
+                    }
+
+                    if(!(callee instanceof ItlCallable)) {
+                        throw new RuntimeError(paren, "You can only call functions and classes");
+                    }
+                    ItlCallable function = (ItlCallable)callee;
+                    checkArity(paren, function.arity(), argCount);
+
+                    List<Object> arguements = new ArrayList<>(argCount);
+                    for(int i = 0; i < argCount; i++) {
+                        arguements.add(stack[base + 1 + i]);
+                    }
+                    Arrays.fill(stack, base, sp, null);
+                    sp = base;
+
+                    current.ip = ip;
+                    current.locals = locals;
+                    try {
+                        push(function.call(interpreter, arguements));
+                    } catch(RuntimeError error) {
+                        throw RuntimeError.at(paren, error);
+                    }
+                    break;
+                }
+                case CLOSURE:
+                    push(new VmFunction((Chunk)constants[readShort(code, ip)], locals));
+                    ip += 2;
+                    break;
+                case RETURN: {
+                    Object result = MemoCache.complete(current.pending, pop());
+                    Arrays.fill(stack, current.base, sp, null);
+                    sp = current.base;
+                    current.chunk = null;
+                    current.locals = null;
+                    current.pending = null;
+                    frameCount--;
+                    if(frameCount == exitDepth) return result;
+
+                    push(result);
+                    current = frames[frameCount - 1];
+                    chunk = current.chunk;
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    locals = current.locals;
+                    ip = current.ip;
+                    break;
+                }
+
+                case PUSH_FRAME:
+                    locals = new Frame(locals, readShort(code, ip));
+                    ip += 2;
+                    break;
+                case POP_FRAME:
+                    locals = locals.enclosing;
+                    break;
+
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[offset] + " in " + chunk);
+            }
+        }
+    }
+
+    private void checkArity(Token paren, int arity, int argCount) {
+        if(argCount != arity) {
+            throw new RuntimeError(paren, "Expected " + arity + " number of arguments, but instead got: " + argCount);
+        }
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xFF) << 8) | (code[ip + 1] & 0xFF);
+    }
+
+    private void push(Object value) {
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        Object value = stack[--sp];
+        stack[sp] = null;
+        return value;
+    }
+
+    private void ensureStack(int needed) {
+        if(sp + needed > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, sp + needed));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package itl;
+
+import java.util.List;
+import java.util.Map;
+
+// A compiled function closed over the frame it was declared in
+public class VmFunction implements ItlCallable {
+
+    final Chunk chunk;
+    final Frame closure;
+    // Only for functions declared with memo
+    final MemoCache memo;
+
+    VmFunction(Chunk chunk, Frame closure) {
+        this(chunk, closure, chunk.memo ? new MemoCache(chunk.name) : null);
+    }
+
+    private VmFunction(Chunk chunk, Frame closure, MemoCache memo) {
+        this.chunk = chunk;
+        this.closure = closure;
+        this.memo = memo;
+    }
+
+    // Same function over copies of its frames, for a Task, see Frame.copy
+    VmFunction detach(Map<Object, Object> copies) {
+        if(closure == null) return this;
+        Frame frame = closure.copy(copies);
+        // Copying the frames can come back around to this function
+        VmFunction copy = (VmFunction)copies.get(this);
+        if(copy == null) {
+            copy = new VmFunction(chunk, frame, memo);
+            copies.put(this, copy);
+        }
+        return copy;
+    }
+
+    // Only used when something outside the VM loop (a native or a Task) calls back in
+    // Each Interpreter has its own VM, so a task never runs on the stack of another
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguements) {
+        if(memo != null) {
+            Object cached = memo.get(arguements);
+            if(cached != null) return MemoCache.unwrap(cached);
+        }
+        return interpreter.vm().call(this, arguements);
+    }
+
+    // Safe to run on many threads at once, see Parallel
+    boolean independent() {
+        return chunk.independent;
+    }
+
+    @Override
+    public int arity() {
+        return chunk.arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + chunk.name + ">";
+    }
+}
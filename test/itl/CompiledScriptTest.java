@@ -0,0 +1,75 @@
+package itl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class CompiledScriptTest {
+
+    private static final String FIB =
+        "function fib(k) { if(k < 2) return k; return fib(k - 1) + fib(k - 2); }\n"
+        + "var result = fib(n);\n"
+        + "print result;\n";
+
+    private static String run(CompiledScript script, double n) {
+        StringWriter output = new StringWriter();
+        ExecutionContext context = new ExecutionContext(new PrintWriter(output), ErrorSink.to(System.err));
+        context.define("n", n);
+        assertTrue(context.run(script));
+        return output.toString();
+    }
+
+    private static CompiledScript fib() {
+        CompiledScript script = CompiledScript.compile(FIB, ErrorSink.to(System.err));
+        assertNotNull(script);
+        return script;
+    }
+
+    @Test
+    void runsReuseTheTree() {
+        CompiledScript script = fib();
+        assertSame(script.statements(), script.statements());
+        Stmt.Function fib = (Stmt.Function)script.statements().get(0);
+
+        assertEquals("55\n", run(script, 10));
+        int calls = fib.calls;
+        assertEquals("55\n", run(script, 10));
+        assertTrue(fib.calls > calls || fib.jitted != null, "the second run counts on from the first");
+    }
+
+    @Test
+    void runsInEachContextStaySeparate() {
+        CompiledScript script = fib();
+        for(int i = 0; i < 20; i++) {
+            assertEquals(i % 2 == 0 ? "55\n" : "610\n", run(script, i % 2 == 0 ? 10 : 15));
+        }
+    }
+
+    @Test
+    void runsAtOnceShareTheTree() throws Exception {
+        CompiledScript script = fib();
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for(int i = 0; i < 16; i++) {
+                results.add(threads.submit(() -> run(script, 18)));
+            }
+            for(Future<String> result : results) {
+                assertEquals("2584\n", result.get());
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package itl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+// DoubleFormat has to give the text stringify gave before it, Double.toString without a trailing ".0"
+class DoubleFormatTest {
+
+    private static final double[] EDGES = {
+        0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+        Double.MIN_VALUE, -Double.MIN_VALUE, Double.MIN_NORMAL, Double.MAX_VALUE, -Double.MAX_VALUE,
+        1, -1, 0.1, 0.1 + 0.2, 1.0 / 3, Math.PI, 123.456, 9007199254740992.0, 9007199254740993.0,
+        // Where whole numbers stop taking the long path, and where Double.toString turns scientific
+        1e7, -1e7, 9999999, 9999999.5, 1e-3, 0.00099999, 1e15, 1e16, 1e17, 1e21, 1e22, 1e23, 2e23
+    };
+
+    private static String expected(double value) {
+        String text = Double.toString(value);
+        return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
+    }
+
+    private static void check(double value) {
+        assertEquals(expected(value), DoubleFormat.toString(value), () -> "bits " + Long.toHexString(Double.doubleToRawLongBits(value)));
+    }
+
+    private static void checkAround(double value) {
+        check(value);
+        check(-value);
+        check(Math.nextUp(value));
+        check(Math.nextDown(value));
+    }
+
+    @Test
+    void edgeValues() {
+        for(double value : EDGES) {
+            checkAround(value);
+        }
+    }
+
+    @Test
+    void powersOfTwo() {
+        for(int exponent = -1074; exponent <= 1023; exponent++) {
+            checkAround(Math.scalb(1.0, exponent));
+        }
+    }
+
+    @Test
+    void powersOfTen() {
+        for(int exponent = -323; exponent <= 308; exponent++) {
+            checkAround(Double.parseDouble("1e" + exponent));
+        }
+    }
+
+    @Test
+    void randomBitPatterns() {
+        SplittableRandom random = new SplittableRandom(25);
+        for(int i = 0; i < 1_000_000; i++) {
+            check(Double.longBitsToDouble(random.nextLong()));
+        }
+    }
+
+    @Test
+    void shortDecimals() {
+        SplittableRandom random = new SplittableRandom(26);
+        for(int i = 0; i < 200_000; i++) {
+            check(random.nextInt(-10_000_000, 10_000_000) / Math.pow(10, random.nextInt(0, 9)));
+        }
+    }
+
+    // The buffered sink writes numbers from its own char array instead of a String
+    @Test
+    void bufferedPrintWritesTheSameText() {
+        List<Double> values = new ArrayList<>();
+        for(double value : EDGES) {
+            values.add(value);
+            values.add(-value);
+        }
+        SplittableRandom random = new SplittableRandom(27);
+        for(int i = 0; i < 10_000; i++) {
+            values.add(Double.longBitsToDouble(random.nextLong()));
+        }
+
+        StringWriter output = new StringWriter();
+        PrintSink sink = PrintSink.buffered(output, Long.MAX_VALUE);
+        StringBuilder expected = new StringBuilder();
+        for(double value : values) {
+            sink.println(value);
+            expected.append(expected(value)).append(System.lineSeparator());
+        }
+        sink.flush();
+        assertEquals(expected.toString(), output.toString());
+    }
+}
@@ -0,0 +1,156 @@
+package itl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProgramImageTest {
+
+    // Uses every kind of statement and expression, and every annotation the Resolver fills in
+    private static final String PROGRAM =
+        "var count = 0;\n"
+        + "var name = \"tree\";\n"
+        + "function counter() {\n"
+        + "  var n = 0;\n"
+        + "  function next() { n = n + 1; return n; }\n"
+        + "  return next;\n"
+        + "}\n"
+        + "memo function fib(n) { if(n < 2) return n; return fib(n - 1) + fib(n - 2); }\n"
+        + "function loop(i, total) { if(i < 1) return total; return loop(i - 1, total + i); }\n"
+        + "function square(i) { return i * i; }\n"
+        + "var next = counter();\n"
+        + "next(); next();\n"
+        + "print next();\n"
+        + "print fib(30);\n"
+        + "print loop(1000, 0);\n"
+        + "{ var a = 1.5; var b = -a; print (a + b) * 2 / 4; }\n"
+        + "for(var i = 0; i < 3; i = i + 1) count = count + i;\n"
+        + "while(count < 10) count = count + 1;\n"
+        + "if(!(count == 10) or false) print \"no\"; else print name + \"!\";\n"
+        + "print nil == nil and true;\n"
+        + "print count >= 10 and count <= 10 and count != 11 and count > 9;\n"
+        + "print square(12345678901234567);\n";
+
+    // Runtime state, not part of what's written
+    private static final Set<Class<?>> RUNTIME = Set.of(JitCode.class, Node.Root.class, InlineCache.class);
+
+    private static List<Stmt> compile() {
+        List<Stmt> statements = Main.compile(new Scanner(PROGRAM, ErrorSink.to(System.err)));
+        assertNotNull(statements);
+        return statements;
+    }
+
+    private static String run(List<Stmt> statements) {
+        StringWriter output = new StringWriter();
+        PrintWriter out = new PrintWriter(output);
+        Interpreter interpreter = new Interpreter(ErrorSink.to(out), out);
+        interpreter.interpret(statements);
+        interpreter.out.flush();
+        return output.toString();
+    }
+
+    @Test
+    void readGivesBackTheSameTree(@TempDir Path directory) throws Exception {
+        List<Stmt> statements = compile();
+        Path file = directory.resolve("program.itlc");
+        ProgramImage.write(statements, file);
+
+        assertSame("program", statements, ProgramImage.read(file));
+    }
+
+    @Test
+    void readRunsTheSame(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("program.itlc");
+        ProgramImage.write(compile(), file);
+
+        assertEquals(run(compile()), run(ProgramImage.read(file)));
+    }
+
+    // Compares every field the Parser and Resolver set, found by reflection so a field added later
+    // and left out of the image fails here
+    private static void assertSame(String path, Object expected, Object actual) throws IllegalAccessException {
+        if(expected == null || actual == null) {
+            assertEquals(expected, actual, path);
+            return;
+        }
+        assertEquals(expected.getClass(), actual.getClass(), path);
+
+        if(expected instanceof List) {
+            List<?> left = (List<?>)expected;
+            List<?> right = (List<?>)actual;
+            assertEquals(left.size(), right.size(), path);
+            for(int i = 0; i < left.size(); i++) {
+                assertSame(path + "[" + i + "]", left.get(i), right.get(i));
+            }
+            return;
+        }
+        if(!(expected instanceof Stmt || expected instanceof Expr || expected instanceof Token)) {
+            assertEquals(expected, actual, path);
+            return;
+        }
+
+        for(Class<?> type = expected.getClass(); type != Object.class; type = type.getSuperclass()) {
+            for(Field field : type.getDeclaredFields()) {
+                if(Modifier.isStatic(field.getModifiers()) || RUNTIME.contains(field.getType())) continue;
+                // Counted while running, see Jit
+                if(field.getDeclaringClass() == Stmt.Function.class && field.getName().equals("calls")) continue;
+                field.setAccessible(true);
+                assertSame(path + "." + type.getSimpleName() + "." + field.getName(), field.get(expected), field.get(actual));
+            }
+        }
+    }
+
+    private static Path image(Path directory, byte[] bytes) throws IOException {
+        Path file = directory.resolve("damaged.itlc");
+        Files.write(file, bytes);
+        return file;
+    }
+
+    private static byte[] image(Path directory) throws IOException {
+        Path file = directory.resolve("program.itlc");
+        ProgramImage.write(compile(), file);
+        return Files.readAllBytes(file);
+    }
+
+    @Test
+    void cacheMissesOnBadMagic(@TempDir Path directory) throws IOException {
+        byte[] bytes = image(directory);
+        bytes[0] ^= 0xff;
+        assertNull(AstCache.load(image(directory, bytes)));
+    }
+
+    @Test
+    void cacheMissesOnAnotherVersion(@TempDir Path directory) throws IOException {
+        byte[] bytes = image(directory);
+        ByteBuffer.wrap(bytes).putInt(4, ProgramImage.VERSION + 1);
+        assertNull(AstCache.load(image(directory, bytes)));
+    }
+
+    @Test
+    void cacheMissesOnATruncatedFile(@TempDir Path directory) throws IOException {
+        byte[] bytes = image(directory);
+        for(int length = 0; length < bytes.length; length++) {
+            assertNull(AstCache.load(image(directory, Arrays.copyOf(bytes, length))), "cut to " + length);
+        }
+    }
+
+    @Test
+    void cacheLoadsAGoodFile(@TempDir Path directory) throws IOException {
+        assertNotNull(AstCache.load(image(directory, image(directory))));
+    }
+}
@@ -0,0 +1,150 @@
+package itl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ResolverTest {
+
+    private static Stmt.Function function(String source, String name) {
+        List<Stmt> statements = Main.compile(new Scanner(source, ErrorSink.to(System.err)));
+        assertNotNull(statements, source);
+        Stmt.Function found = find(statements, name);
+        assertNotNull(found, name);
+        return found;
+    }
+
+    // The compile errors, which have to stop the compile
+    private static String errors(String source) {
+        StringWriter errors = new StringWriter();
+        assertNull(Main.compile(new Scanner(source, ErrorSink.to(new PrintWriter(errors)))), source);
+        return errors.toString();
+    }
+
+    private static Stmt.Function find(List<Stmt> statements, String name) {
+        for(Stmt statement : statements) {
+            if(!(statement instanceof Stmt.Function)) continue;
+            Stmt.Function function = (Stmt.Function)statement;
+            if(function.name.lexeme.equals(name)) return function;
+            Stmt.Function nested = find(function.body, name);
+            if(nested != null) return nested;
+        }
+        return null;
+    }
+
+    @Test
+    void assigningOnlyLocalsIsIndependent() {
+        assertTrue(function("function f(i) { var s = i; s = s * 2; return s; }", "f").independent);
+    }
+
+    @Test
+    void assigningAGlobalIsNot() {
+        assertFalse(function("var n = 0; function f(i) { n = i; }", "f").independent);
+    }
+
+    @Test
+    void callingAHelperThatAssignsAGlobalIsNot() {
+        String source = "var n = 0; function bump() { n = n + 1; } function f(i) { bump(); }";
+        assertFalse(function(source, "f").independent);
+    }
+
+    @Test
+    void callingAHelperDeclaredLaterIsChecked() {
+        String source = "function f(i) { return g(i); } function g(i) { return i; }";
+        assertTrue(function(source, "f").independent);
+    }
+
+    @Test
+    void mutualRecursionIsIndependent() {
+        String source = "function even(n) { if(n < 1) return true; return odd(n - 1); }"
+            + "function odd(n) { if(n < 1) return false; return even(n - 1); }";
+        assertTrue(function(source, "even").independent);
+    }
+
+    @Test
+    void callingAReassignedFunctionIsNot() {
+        String source = "function g(i) { return i; } function f(i) { return g(i); } g = clock;";
+        assertFalse(function(source, "f").independent);
+    }
+
+    @Test
+    void callingANativeThatSendsIsNot() {
+        String source = "var c = channel(1); function f(i) { send(c, i); }";
+        assertFalse(function(source, "f").independent);
+    }
+
+    @Test
+    void callingClockIsIndependent() {
+        assertTrue(function("function f(i) { return clock() + i; }", "f").independent);
+    }
+
+    @Test
+    void callingItsOwnParamIsTrusted() {
+        assertTrue(function("function apply(g, i) { return g(i); }", "apply").independent);
+    }
+
+    @Test
+    void callingAnEnclosingParamIsNot() {
+        String source = "function outer(g) { function f(i) { return g(i); } return f; }";
+        assertFalse(function(source, "f").independent);
+    }
+
+    @Test
+    void nestedFunctionAssigningTheCallersLocalsIsIndependent() {
+        String source = "function f(i) { var local = i; function inner() { local = local * 2; } inner(); return local; }";
+        assertTrue(function(source, "f").independent);
+    }
+
+    @Test
+    void memoCallingAnImpureHelperIsAnError() {
+        String source = "function now() { return clock(); } function later() { return now(); }"
+            + "memo function f(n) { return later() + n; }";
+        assertEquals("[line 1] Error at 'later': Can't call later from a memo function, it calls natives like clock\n", errors(source));
+    }
+
+    @Test
+    void memoCallingAHelperThatAssignsAGlobalIsAnError() {
+        String source = "var total = 0; function add(n) { total = total + n; return total; }"
+            + "memo function f(n) { return add(n); }";
+        assertEquals("[line 1] Error at 'add': Can't call add from a memo function, it assigns to variables outside it\n", errors(source));
+    }
+
+    @Test
+    void memoCallingAPureHelperIsFine() {
+        String source = "function square(n) { var s = n; s = s * n; return s; }"
+            + "memo function f(n) { if(n < 1) return 0; return f(n - 1) + square(n); }";
+        assertNotNull(function(source, "f"));
+    }
+
+    @Test
+    void memoReadingAnAssignedVariableIsAnError() {
+        String source = "var k = 1; memo function f(n) { return n + k; } print f(1); k = 2; print f(1);";
+        assertEquals("[line 1] Error at 'k': Can't read k from a memo function, it's assigned outside it\n", errors(source));
+    }
+
+    @Test
+    void memoReadingAVariableNothingAssignsIsFine() {
+        String source = "var k = 10; memo function f(n) { return n + k; } print f(1);";
+        assertNotNull(function(source, "f"));
+    }
+
+    @Test
+    void memoCallingThroughALocalIsAnError() {
+        String source = "memo function f(n) { var g = clock; return g(); }";
+        assertEquals("[line 1] Error at 'g': Can't call g from a memo function, it could hold any function\n", errors(source));
+    }
+
+    @Test
+    void memoCallingThroughAGlobalVariableIsAnError() {
+        String source = "var g = clock; memo function f(n) { return g(); }";
+        assertEquals("[line 1] Error at 'g': Can't call g from a memo function, it could hold any function\n", errors(source));
+    }
+}
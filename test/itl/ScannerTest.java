@@ -0,0 +1,74 @@
+package itl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ScannerTest {
+
+    private static List<TokenType> types(String source) {
+        List<TokenType> types = new ArrayList<>();
+        for(Token token : new Scanner(source).scanTokens()) {
+            types.add(token.type);
+        }
+        return types;
+    }
+
+    @Test
+    void keywordsAreCaseInsensitive() {
+        assertEquals(List.of(TokenType.FUNCTION, TokenType.RETURN, TokenType.PRINT, TokenType.IF, TokenType.EOF),
+                types("function RETURN Print iF"));
+    }
+
+    // Same length and all but one letter of a keyword
+    @Test
+    void nearKeywordsAreIdentifiers() {
+        for(String name : List.of("junction", "xeturn", "printer", "iff", "fi", "nul", "mem", "whilst", "classy", "functio")) {
+            assertEquals(List.of(TokenType.IDENTIFIER, TokenType.EOF), types(name), name);
+        }
+    }
+
+    @Test
+    void nearKeywordRunsAsAVariable() {
+        assertEquals(List.of(TokenType.VAR, TokenType.IDENTIFIER, TokenType.EQUAL, TokenType.NUMBER, TokenType.SEMICOLON, TokenType.EOF),
+                types("var junction = 3;"));
+    }
+
+    @Test
+    void numbersAreParsedAsTheyAreRead() {
+        List<Token> tokens = new Scanner("0 42 1.5 1234567890123456789").scanTokens();
+        assertEquals(0.0, tokens.get(0).literal);
+        assertEquals(42.0, tokens.get(1).literal);
+        assertEquals(1.5, tokens.get(2).literal);
+        assertEquals(1234567890123456789.0, tokens.get(3).literal);
+        assertEquals("1.5", tokens.get(2).lexeme);
+    }
+
+    // scan() leaves the parts in the Scanner, no Token and no lexeme are made
+    @Test
+    void integersAreReadWithoutTheirText() {
+        Scanner scanner = new Scanner("1234567 007 2.5");
+        assertEquals(TokenType.NUMBER, scanner.scan());
+        assertEquals(1234567.0, scanner.literal);
+        assertNull(scanner.lexeme);
+
+        assertEquals(TokenType.NUMBER, scanner.scan());
+        assertEquals(7.0, scanner.literal);
+        assertEquals("007", scanner.lexeme);
+
+        assertEquals(TokenType.NUMBER, scanner.scan());
+        assertEquals(2.5, scanner.literal);
+        assertEquals("2.5", scanner.lexeme);
+    }
+
+    @Test
+    void integerLexemesAreSpelledOnDemand() {
+        List<Token> tokens = new Scanner("1234567 007").scanTokens();
+        assertEquals("1234567", tokens.get(0).lexeme);
+        assertEquals("007", tokens.get(1).lexeme);
+    }
+}
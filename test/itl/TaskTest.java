@@ -0,0 +1,74 @@
+package itl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class TaskTest {
+
+    // bump closes over the same frame as work, so the task has to get a bump over its own copy of it
+    private static final String SIBLINGS =
+        "function outer() {\n"
+        + "  var count = 0;\n"
+        + "  function bump() { count = count + 1; }\n"
+        + "  function work() { bump(); bump(); bump(); return count; }\n"
+        + "  print await(spawn(work));\n"
+        + "  print count;\n"
+        + "  bump();\n"
+        + "  print count;\n"
+        + "}\n"
+        + "outer();\n";
+
+    private enum Engine { TREE, CLOSURE, VM }
+
+    private static String run(String source, Engine engine) {
+        StringWriter output = new StringWriter();
+        PrintWriter out = new PrintWriter(output);
+        ErrorSink errors = ErrorSink.to(out);
+        List<Stmt> statements = Main.compile(new Scanner(source, errors));
+        assertNotNull(statements, output.toString());
+
+        Interpreter interpreter = new Interpreter(errors, out);
+        switch(engine) {
+            case TREE:
+                interpreter.interpret(statements);
+                break;
+            case CLOSURE:
+                interpreter.interpret(new ClosureCompiler().compile(statements));
+                break;
+            case VM:
+                interpreter.vm().interpret(new BytecodeCompiler(errors).compile(statements));
+                break;
+        }
+        interpreter.out.flush();
+        return output.toString();
+    }
+
+    @Test
+    void siblingClosuresSeeTheTasksCopy() {
+        for(Engine engine : Engine.values()) {
+            assertEquals("3\n0\n1\n", run(SIBLINGS, engine), engine.name());
+        }
+    }
+
+    @Test
+    void spawningTwiceCopiesTwice() {
+        String source = "function outer() {\n"
+            + "  var count = 0;\n"
+            + "  function bump() { count = count + 1; return count; }\n"
+            + "  var a = spawn(bump);\n"
+            + "  var b = spawn(bump);\n"
+            + "  print await(a) + await(b);\n"
+            + "  print count;\n"
+            + "}\n"
+            + "outer();\n";
+        for(Engine engine : Engine.values()) {
+            assertEquals("2\n0\n", run(source, engine), engine.name());
+        }
+    }
+}